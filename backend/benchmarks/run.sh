@@ -0,0 +1,17 @@
+#!/usr/bin/env bash
+# Run the benchmarks with throughput, latency percentiles and the GC allocation profile, as JSON named after the commit
+# Run from the benchmarks directory, the arguments go to JMH (e.g. a benchmark name regexp):
+#   ./run.sh [jmh options]
+# Compare two runs with:
+#   java -cp target/benchmarks.jar com.example.jwt_basics1.benchmark.BenchmarkDiff results/<before>.json results/<after>.json
+set -euo pipefail
+
+# the wrapper is not executable in the repository, MVN=mvn uses a local Maven instead
+MVN=${MVN:-"sh $PWD/../mvnw"}
+(cd .. && $MVN -q -DskipTests install)
+$MVN -q -DskipTests package
+
+mkdir -p results
+COMMIT=$(git rev-parse --short HEAD)
+java -jar target/benchmarks.jar -bm thrpt,sample -prof gc -rf json -rff "results/$COMMIT.json" "$@"
+echo "results/$COMMIT.json"
@@ -0,0 +1,114 @@
+package com.example.jwt_basics1.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+    * The BenchmarkDiff class compares two JMH result files (-rf json) and fails on regressions
+    * A result is keyed by benchmark, mode and params; its primary score and, when the gc profiler ran,
+    * its gc.alloc.rate.norm (bytes per operation) are compared
+    * Throughput is better when higher, every other mode and the allocation rate are better when lower
+    * A change is a regression when it is worse than the threshold and larger than the errors of both scores
+    * Usage: BenchmarkDiff <before.json> <after.json> [threshold-percent, default 10]
+ */
+public final class BenchmarkDiff {
+
+    private static final String ALLOCATION = "gc.alloc.rate.norm";
+
+    private BenchmarkDiff() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: BenchmarkDiff <before.json> <after.json> [threshold-percent]");
+            System.exit(2);
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) / 100 : 0.10;
+        Map<String, Score> before = read(Path.of(args[0]));
+        Map<String, Score> after = read(Path.of(args[1]));
+
+        List<String> regressions = new ArrayList<>();
+        System.out.printf("%-90s %14s %14s %9s%n", "benchmark", "before", "after", "change");
+        for (Map.Entry<String, Score> entry : after.entrySet()) {
+            Score previous = before.get(entry.getKey());
+            Score current = entry.getValue();
+            if (previous == null) {
+                System.out.printf("%-90s %14s %14.3f %9s%n", entry.getKey(), "-", current.value, "new");
+                continue;
+            }
+            // the relative change, positive is better
+            double change = (current.value - previous.value) / previous.value;
+            if (!current.higherIsBetter) {
+                change = -change;
+            }
+            boolean regression = change < -threshold
+                    && Math.abs(current.value - previous.value) > previous.error + current.error;
+            System.out.printf("%-90s %14.3f %14.3f %+8.1f%% %s%n", entry.getKey(), previous.value, current.value,
+                    change * 100, regression ? "REGRESSION" : "");
+            if (regression) {
+                regressions.add(entry.getKey());
+            }
+        }
+
+        if (!regressions.isEmpty()) {
+            System.out.println();
+            System.out.println(regressions.size() + " regression(s) over " + Math.round(threshold * 100) + "%:");
+            regressions.forEach(name -> System.out.println("  " + name));
+            System.exit(1);
+        }
+    }
+
+    // key -> score, for the primary metric and the allocation rate of every result
+    private static Map<String, Score> read(Path file) throws IOException {
+        Map<String, Score> scores = new TreeMap<>();
+        for (JsonNode result : new ObjectMapper().readTree(file.toFile())) {
+            String mode = result.path("mode").asText();
+            String key = result.path("benchmark").asText() + " " + mode + params(result.path("params"));
+
+            JsonNode primary = result.path("primaryMetric");
+            scores.put(key + " [" + primary.path("scoreUnit").asText() + "]",
+                    new Score(primary.path("score").asDouble(), error(primary), "thrpt".equals(mode)));
+
+            JsonNode allocation = result.path("secondaryMetrics").path(ALLOCATION);
+            if (!allocation.isMissingNode()) {
+                scores.put(key + " " + ALLOCATION,
+                        new Score(allocation.path("score").asDouble(), error(allocation), false));
+            }
+        }
+        return scores;
+    }
+
+    private static String params(JsonNode params) {
+        if (params.isMissingNode() || params.isEmpty()) {
+            return "";
+        }
+        Map<String, String> sorted = new TreeMap<>();
+        params.fieldNames().forEachRemaining(name -> sorted.put(name, params.path(name).asText()));
+        return " " + sorted;
+    }
+
+    // a single iteration has no error, JMH writes NaN
+    private static double error(JsonNode metric) {
+        double error = metric.path("scoreError").asDouble();
+        return Double.isNaN(error) ? 0 : error;
+    }
+
+    private static final class Score {
+        private final double value;
+        private final double error;
+        private final boolean higherIsBetter;
+
+        private Score(double value, double error, boolean higherIsBetter) {
+            this.value = value;
+            this.error = error;
+            this.higherIsBetter = higherIsBetter;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.jwt_basics1.benchmark;
+
+import com.example.jwt_basics1.config.AuthMetrics;
+import com.example.jwt_basics1.config.JwtKeyRing;
+import com.example.jwt_basics1.entity.Role;
+import com.example.jwt_basics1.entity.User;
+import com.example.jwt_basics1.repository.UserRepository;
+import com.example.jwt_basics1.service.CustomUserDetailsService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+// The objects the benchmarks share: a key ring in a temporary file, a user with two roles, mocked repositories
+final class BenchmarkFixtures {
+
+    static final String USERNAME = "user";
+
+    private BenchmarkFixtures() {
+    }
+
+    // a key ring without rotation, the single key of the new file signs
+    static JwtKeyRing keyRing(Path directory, JwtKeyRing.Algorithm algorithm) {
+        return new JwtKeyRing(directory.resolve("jwt-keys.properties"), Duration.ZERO, 30_000, Duration.ZERO, algorithm);
+    }
+
+    // the timers record as in production, into a registry nobody scrapes
+    static AuthMetrics authMetrics() {
+        return new AuthMetrics(new SimpleMeterRegistry());
+    }
+
+    static void deleteDirectory(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    static Role role(long id, String roleName) {
+        Role role = new Role();
+        role.setId(id);
+        role.setRoleName(roleName);
+        return role;
+    }
+
+    static List<Role> roles() {
+        return List.of(role(1, "ADMIN"), role(2, "USER"));
+    }
+
+    static User user() {
+        return User.builder()
+                .id(1L)
+                .username(USERNAME)
+                .password("{noop}password")
+                .roles(new ArrayList<>(roles()))
+                .build();
+    }
+
+    // the user details are cached after the first lookup, so the mock is called once per trial
+    static CustomUserDetailsService userDetailsService() {
+        UserRepository userRepository = mock(UserRepository.class);
+        when(userRepository.findByUsername(USERNAME)).thenReturn(user());
+        return new CustomUserDetailsService(userRepository, 10_000, Duration.ofHours(1), Duration.ofHours(1));
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.jwt_basics1.benchmark;
+
+import com.example.jwt_basics1.config.JwtAuthenticationFilter;
+import com.example.jwt_basics1.config.JwtKeyRing;
+import com.example.jwt_basics1.config.JwtUtil;
+import com.example.jwt_basics1.service.CustomUserDetailsService;
+import com.example.jwt_basics1.service.TokenBlacklistService;
+import com.example.jwt_basics1.service.UserRevocationService;
+import com.example.jwt_basics1.store.LocalTokenReplication;
+import com.example.jwt_basics1.store.TokenJournalFactory;
+import io.micrometer.tracing.Tracer;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/*
+    * Cost of the whole JwtAuthenticationFilter for a valid access token: the token parse (from the verified token
+    * cache after the first request, as in production), the blacklist, the user details and the security context
+    * With claimsTrust the user details come from the roles claim, without it from the user details cache
+    * The mock request and response of every call are part of the measured cost, compare runs, not absolute numbers
+    * Run with: java -jar target/benchmarks.jar JwtAuthenticationFilterBenchmark (see run.sh)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JwtAuthenticationFilterBenchmark {
+
+    private static final FilterChain NO_OP_CHAIN = (request, response) -> { };
+
+    @Param({"false", "true"})
+    private boolean claimsTrust;
+
+    private Path directory;
+    private JwtAuthenticationFilter filter;
+    private String authorization;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("jwt-keys");
+        JwtKeyRing keyRing = BenchmarkFixtures.keyRing(directory, JwtKeyRing.Algorithm.HS256);
+        JwtUtil jwtUtil = new JwtUtil(keyRing, 100_000, Duration.ofMinutes(5));
+        CustomUserDetailsService userDetailsService = BenchmarkFixtures.userDetailsService();
+
+        TokenBlacklistService tokenBlacklistService = new TokenBlacklistService(1_000_000, 0.01,
+                TokenJournalFactory.disabled(), new LocalTokenReplication());
+        Date expiration = new Date(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1));
+        for (int i = 0; i < 100_000; i++) {
+            tokenBlacklistService.blacklistToken(UUID.randomUUID().toString(), expiration);
+        }
+
+        UserRevocationService userRevocationService = new UserRevocationService(
+                TokenJournalFactory.disabled(), new LocalTokenReplication());
+        filter = new JwtAuthenticationFilter(jwtUtil, userDetailsService, tokenBlacklistService,
+                userRevocationService, BenchmarkFixtures.authMetrics(), Tracer.NOOP, claimsTrust);
+        String accessToken = jwtUtil.issueTokenPair(
+                userDetailsService.loadUserByUsername(BenchmarkFixtures.USERNAME), UUID.randomUUID().toString())
+                .getAccessToken();
+        authorization = "Bearer " + accessToken;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkFixtures.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public int authenticate() throws ServletException, IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/users/1");
+        request.addHeader("Authorization", authorization);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        try {
+            filter.doFilter(request, response, NO_OP_CHAIN);
+        } finally {
+            SecurityContextHolder.clearContext();
+        }
+        return response.getStatus();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(JwtAuthenticationFilterBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
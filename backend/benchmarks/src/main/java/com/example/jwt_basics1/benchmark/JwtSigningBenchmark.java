@@ -0,0 +1,75 @@
+package com.example.jwt_basics1.benchmark;
+
+import com.example.jwt_basics1.config.JwtKeyRing;
+import com.example.jwt_basics1.config.JwtUtil;
+import com.example.jwt_basics1.config.VerifiedToken;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/*
+    * Cost of signing and of verifying an access token with JwtUtil, for each algorithm of the key ring
+    * HMAC is the cheapest on both sides, ES256 and EdDSA sign and verify much slower but let other services verify
+    * with the public key only, weigh them by the number of verifications per issued token
+    * Run with: java -jar target/benchmarks.jar JwtSigningBenchmark (see run.sh)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JwtSigningBenchmark {
+
+    @Param({"HS256", "ES256", "EdDSA"})
+    private JwtKeyRing.Algorithm algorithm;
+
+    private Path directory;
+    private JwtUtil jwtUtil;
+    private UserDetails userDetails;
+    private String token;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("jwt-keys");
+        JwtKeyRing keyRing = BenchmarkFixtures.keyRing(directory, algorithm);
+        // without the verified token cache, verify measures the signature check itself
+        jwtUtil = new JwtUtil(keyRing, 0, Duration.ZERO);
+        userDetails = new User("user", "", List.of(new SimpleGrantedAuthority("ROLE_USER"),
+                new SimpleGrantedAuthority("ROLE_ADMIN")));
+        token = jwtUtil.generateToken(null, userDetails, UUID.randomUUID().toString());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkFixtures.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public String sign() {
+        return jwtUtil.generateToken(null, userDetails, "3f1c1f3e-5d55-4a43-9a51-7a4bb0d2f0c1");
+    }
+
+    @Benchmark
+    public VerifiedToken verify() {
+        return jwtUtil.parseToken(token);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(JwtSigningBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
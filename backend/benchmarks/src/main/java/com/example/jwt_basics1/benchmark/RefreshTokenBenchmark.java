@@ -0,0 +1,96 @@
+package com.example.jwt_basics1.benchmark;
+
+import com.example.jwt_basics1.config.JwtKeyRing;
+import com.example.jwt_basics1.config.JwtUtil;
+import com.example.jwt_basics1.dto.AuthenticationResponse;
+import com.example.jwt_basics1.dto.RefreshTokenRequest;
+import com.example.jwt_basics1.service.CustomUserDetailsService;
+import com.example.jwt_basics1.service.RefreshTokenService;
+import com.example.jwt_basics1.service.TokenBlacklistService;
+import com.example.jwt_basics1.store.LocalTokenReplication;
+import com.example.jwt_basics1.store.TokenJournalFactory;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/*
+    * Cost of RefreshTokenService.refreshAccessToken: verify the refresh token, the blacklist and the IP binding,
+    * the (cached) user details, a new token pair and the renewed IP binding
+    * A refresh token is sent once, so the verified token cache is off, and the refresh tokens are many
+    * Run with: java -jar target/benchmarks.jar RefreshTokenBenchmark (see run.sh)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RefreshTokenBenchmark {
+
+    private static final int TOKENS = 1024;
+    private static final String IP = "10.0.0.1";
+
+    private Path directory;
+    private RefreshTokenService refreshTokenService;
+    private RefreshTokenRequest[] requests;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("jwt-keys");
+        JwtKeyRing keyRing = BenchmarkFixtures.keyRing(directory, JwtKeyRing.Algorithm.HS256);
+        JwtUtil jwtUtil = new JwtUtil(keyRing, 0, Duration.ZERO);
+        CustomUserDetailsService userDetailsService = BenchmarkFixtures.userDetailsService();
+
+        TokenBlacklistService tokenBlacklistService = new TokenBlacklistService(1_000_000, 0.01,
+                TokenJournalFactory.disabled(), new LocalTokenReplication());
+        // a blacklist that is not empty, the refresh tokens themselves are not in it
+        Date expiration = new Date(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1));
+        for (int i = 0; i < 100_000; i++) {
+            tokenBlacklistService.blacklistToken(UUID.randomUUID().toString(), expiration);
+        }
+
+        refreshTokenService = new RefreshTokenService(userDetailsService, jwtUtil, tokenBlacklistService,
+                TokenJournalFactory.disabled(), new LocalTokenReplication(), BenchmarkFixtures.authMetrics(),
+                1_000_000);
+        refreshTokenService.restore();
+
+        requests = new RefreshTokenRequest[TOKENS];
+        for (int i = 0; i < TOKENS; i++) {
+            String jwtID = UUID.randomUUID().toString();
+            refreshTokenService.storeRefreshTokenIp(jwtID, IP);
+            AuthenticationResponse tokens = jwtUtil.issueTokenPair(
+                    userDetailsService.loadUserByUsername(BenchmarkFixtures.USERNAME), jwtID);
+            requests[i] = new RefreshTokenRequest(tokens.getRefreshToken(), IP);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkFixtures.deleteDirectory(directory);
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Benchmark
+    public AuthenticationResponse refresh(Cursor cursor) {
+        return refreshTokenService.refreshAccessToken(requests[cursor.next++ & (TOKENS - 1)]);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(RefreshTokenBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.jwt_basics1.benchmark;
+
+import com.example.jwt_basics1.service.TokenBlacklistService;
+import com.example.jwt_basics1.store.LocalTokenReplication;
+import com.example.jwt_basics1.store.TokenJournalFactory;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/*
+    * Lookup latency of TokenBlacklistService.isTokenBlacklisted for blacklists of 1k up to 10M ids
+    * The latency should stay flat, a lookup must not depend on the number of blacklisted tokens
+    * Run with: java -jar target/benchmarks.jar TokenBlacklistBenchmark (see run.sh)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx6g"})
+@State(Scope.Benchmark)
+public class TokenBlacklistBenchmark {
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    private int size;
+
+    private TokenBlacklistService tokenBlacklistService;
+    private String[] revokedIds;
+    private String[] validIds;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        tokenBlacklistService = new TokenBlacklistService(size, 0.01, TokenJournalFactory.disabled(),
+                new LocalTokenReplication());
+        Date expiration = new Date(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1));
+        revokedIds = new String[1024];
+        for (int i = 0; i < size; i++) {
+            String jwtID = UUID.randomUUID().toString();
+            tokenBlacklistService.blacklistToken(jwtID, expiration);
+            if (i < revokedIds.length) {
+                revokedIds[i] = jwtID;
+            }
+        }
+        // fewer ids than slots, repeat them
+        for (int i = size; i < revokedIds.length; i++) {
+            revokedIds[i] = revokedIds[i % size];
+        }
+        validIds = new String[1024];
+        for (int i = 0; i < validIds.length; i++) {
+            validIds[i] = UUID.randomUUID().toString();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    // the common case, a token that was not revoked
+    @Benchmark
+    public boolean lookupValid(Cursor cursor) {
+        return tokenBlacklistService.isTokenBlacklisted(validIds[cursor.next++ & 1023]);
+    }
+
+    @Benchmark
+    public boolean lookupRevoked(Cursor cursor) {
+        return tokenBlacklistService.isTokenBlacklisted(revokedIds[cursor.next++ & 1023]);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(TokenBlacklistBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.jwt_basics1.benchmark;
+
+import com.example.jwt_basics1.config.JwtKeyRing;
+import com.example.jwt_basics1.config.JwtUtil;
+import com.example.jwt_basics1.dto.AuthenticationResponse;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+    * Cost of issuing the access / refresh token pair of a login, with an HS256 key
+    * builderPair is the jjwt builder twice, issueTokenPair the lean path used by the login and the refresh
+    * Runs with the GC profiler, compare gc.alloc.rate.norm (bytes per pair): issueTokenPair should stay
+    * under a third of builderPair, a regression there shows up as allocation before it shows up as time
+    * Run with: java -jar target/benchmarks.jar TokenIssuanceBenchmark (see run.sh)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TokenIssuanceBenchmark {
+
+    private static final String JWT_ID = "3f1c1f3e-5d55-4a43-9a51-7a4bb0d2f0c1";
+
+    private Path directory;
+    private JwtUtil jwtUtil;
+    private UserDetails userDetails;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("jwt-keys");
+        JwtKeyRing keyRing = BenchmarkFixtures.keyRing(directory, JwtKeyRing.Algorithm.HS256);
+        jwtUtil = new JwtUtil(keyRing, 0, Duration.ZERO);
+        userDetails = new User("user", "", List.of(new SimpleGrantedAuthority("ROLE_USER"),
+                new SimpleGrantedAuthority("ROLE_ADMIN")));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkFixtures.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public void builderPair(Blackhole blackhole) {
+        blackhole.consume(jwtUtil.generateToken(null, userDetails, JWT_ID));
+        blackhole.consume(jwtUtil.generateRefreshToken(null, userDetails, JWT_ID));
+    }
+
+    @Benchmark
+    public AuthenticationResponse issueTokenPair() {
+        return jwtUtil.issueTokenPair(userDetails, JWT_ID);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(TokenIssuanceBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
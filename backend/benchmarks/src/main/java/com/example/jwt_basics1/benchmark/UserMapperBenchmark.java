@@ -0,0 +1,71 @@
+package com.example.jwt_basics1.benchmark;
+
+import com.example.jwt_basics1.dto.UserDto;
+import com.example.jwt_basics1.entity.User;
+import com.example.jwt_basics1.mapper.UserMapper;
+import com.example.jwt_basics1.repository.RoleRepository;
+import com.example.jwt_basics1.service.RoleService;
+import com.example.jwt_basics1.service.UserRevocationService;
+import com.example.jwt_basics1.store.LocalTokenReplication;
+import com.example.jwt_basics1.store.TokenJournalFactory;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/*
+    * Cost of UserMapper.toDto and toEntity, the roles are resolved from the warmed registry of RoleService
+    * so toEntity must not reach the (mocked) RoleRepository at all
+    * Run with: java -jar target/benchmarks.jar UserMapperBenchmark (see run.sh)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UserMapperBenchmark {
+
+    private UserMapper userMapper;
+    private User user;
+    private UserDto userDto;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        RoleRepository roleRepository = mock(RoleRepository.class);
+        when(roleRepository.findAll()).thenReturn(BenchmarkFixtures.roles());
+        RoleService roleService = new RoleService(roleRepository, BenchmarkFixtures.userDetailsService(),
+                new UserRevocationService(TokenJournalFactory.disabled(), new LocalTokenReplication()));
+        roleService.warmUp();
+
+        userMapper = new UserMapper(roleService);
+        user = BenchmarkFixtures.user();
+        userDto = UserDto.builder()
+                .username("new-user")
+                .password("{noop}password")
+                .roles(Set.of("ADMIN", "USER"))
+                .build();
+    }
+
+    @Benchmark
+    public UserDto toDto() {
+        return userMapper.toDto(user);
+    }
+
+    @Benchmark
+    public User toEntity() {
+        return userMapper.toEntity(userDto);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(UserMapperBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,30 @@
+#!/usr/bin/env bash
+# Compare throughput and tail latency of the platform thread pool and the virtual thread mode
+# Needs the MySQL database of application.properties, run from the backend directory:
+#   loadtest/compare-threading.sh [concurrency] [seconds] [path]
+set -euo pipefail
+
+CONCURRENCY=${1:-2000}
+SECONDS_PER_RUN=${2:-30}
+REQUEST_PATH=${3:-/api/users/1}
+PORT=8080
+
+./mvnw -q -DskipTests package
+./mvnw -q test-compile
+JAR=$(ls target/*-exec.jar | head -n 1)
+
+run() {
+  local profile=$1
+  echo "=== ${profile:-platform} threads"
+  java -jar "$JAR" --server.port=$PORT ${profile:+--spring.profiles.active=$profile} > "target/server-${profile:-platform}.log" 2>&1 &
+  local pid=$!
+  until curl -s -o /dev/null "http://localhost:$PORT/api/login"; do sleep 1; done
+  ./mvnw -q exec:java -Dexec.classpathScope=test \
+      -Dexec.mainClass=com.example.jwt_basics1.loadtest.LoadGenerator \
+      -Dexec.args="baseUrl=http://localhost:$PORT concurrency=$CONCURRENCY seconds=$SECONDS_PER_RUN path=$REQUEST_PATH"
+  kill $pid
+  wait $pid 2>/dev/null || true
+}
+
+run ""
+run "virtual"
@@ -0,0 +1,39 @@
+#!/usr/bin/env bash
+# Workload mix (login, refresh, reads, logout) against the loadtest profile: in-memory H2 seeded with users x roles
+# Needs no database and no network, run from the backend directory:
+#   loadtest/run-workload.sh [users] [concurrency] [seconds] [profiles] [generator options...]
+# e.g. loadtest/run-workload.sh 1000000 1000 120 loadtest,virtual mix=read:90,refresh:5,logout:5
+set -euo pipefail
+
+USERS=${1:-100000}
+CONCURRENCY=${2:-500}
+SECONDS_PER_RUN=${3:-60}
+PROFILES=${4:-loadtest}
+shift $(( $# < 4 ? $# : 4 ))
+PORT=8080
+PREFIX=loadtest-user-
+
+./mvnw -q -DskipTests package
+./mvnw -q test-compile
+JAR=$(ls target/*-exec.jar | head -n 1)
+
+mkdir -p target/loadtest
+java -jar "$JAR" --server.port=$PORT --spring.profiles.active="$PROFILES" --loadtest.seed.users="$USERS" \
+    > target/loadtest/server.log 2>&1 &
+PID=$!
+trap 'kill $PID 2>/dev/null || true' EXIT
+
+# the users are inserted in order, the seeding is done once the last one can log in
+echo "Seeding $USERS users..."
+until curl -sf -o /dev/null -H 'Content-Type: application/json' \
+    -d "{\"username\":\"$PREFIX$((USERS - 1))\",\"password\":\"password\"}" "http://localhost:$PORT/api/login"; do
+  if ! kill -0 $PID 2>/dev/null; then
+    echo "The backend stopped, see target/loadtest/server.log" >&2
+    exit 1
+  fi
+  sleep 1
+done
+
+./mvnw -q exec:java -Dexec.classpathScope=test \
+    -Dexec.mainClass=com.example.jwt_basics1.loadtest.WorkloadGenerator \
+    -Dexec.args="baseUrl=http://localhost:$PORT concurrency=$CONCURRENCY seconds=$SECONDS_PER_RUN users=$USERS usernamePrefix=$PREFIX $*"
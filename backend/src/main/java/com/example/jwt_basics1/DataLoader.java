@@ -6,6 +6,7 @@ import com.example.jwt_basics1.repository.RoleRepository;
 import com.example.jwt_basics1.repository.UserRepository;
 import lombok.RequiredArgsConstructor;
 import org.springframework.boot.CommandLineRunner;
+import org.springframework.core.annotation.Order;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Component;
 
@@ -13,6 +14,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 @Component
+@Order(0) // before the LoadTestDataSeeder of the loadtest profile
 // Lombok will generate a constructor with all the required fields, for autowiring
 @RequiredArgsConstructor
 // command line runner interface is used to run the code when the application starts
@@ -2,8 +2,10 @@ package com.example.jwt_basics1;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling // runs the @Scheduled cleanup tasks of the token services
 public class JwtBasics1Application {
 
     public static void main(String[] args) {
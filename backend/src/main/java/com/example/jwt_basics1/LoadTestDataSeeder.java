@@ -0,0 +1,114 @@
+package com.example.jwt_basics1;
+
+import com.example.jwt_basics1.entity.Role;
+import com.example.jwt_basics1.entity.User;
+import com.example.jwt_basics1.repository.RoleRepository;
+import com.example.jwt_basics1.repository.UserRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.annotation.Order;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    * The LoadTestDataSeeder fills the database of the loadtest profile with users x roles, after the DataLoader
+    * Users are named <prefix><n>, n from 0 to users - 1, and all share the same password
+    * Every user has the USER role, so it can read the users, and roles-per-user - 1 of the seeded roles
+    * The password is hashed once and the hash is shared, hashing every user would take longer than the test
+    * The users are inserted in order, one chunk per transaction, so once the last user can log in the seeding is done
+ */
+@Slf4j
+@Component
+@Profile("loadtest")
+@Order(1) // after the DataLoader, which creates the USER role
+public class LoadTestDataSeeder implements CommandLineRunner {
+
+    private static final int CHUNK_SIZE = 1000;
+
+    private final UserRepository userRepository;
+    private final RoleRepository roleRepository;
+    private final PasswordEncoder passwordEncoder;
+    private final TransactionTemplate transactionTemplate;
+    private final int users;
+    private final int roles;
+    private final int rolesPerUser;
+    private final String usernamePrefix;
+    private final String password;
+
+    public LoadTestDataSeeder(UserRepository userRepository,
+                              RoleRepository roleRepository,
+                              PasswordEncoder passwordEncoder,
+                              PlatformTransactionManager transactionManager,
+                              @Value("${loadtest.seed.users:100000}") int users,
+                              @Value("${loadtest.seed.roles:50}") int roles,
+                              @Value("${loadtest.seed.roles-per-user:3}") int rolesPerUser,
+                              @Value("${loadtest.seed.username-prefix:loadtest-user-}") String usernamePrefix,
+                              @Value("${loadtest.seed.password:password}") String password) {
+        this.userRepository = userRepository;
+        this.roleRepository = roleRepository;
+        this.passwordEncoder = passwordEncoder;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.users = users;
+        this.roles = roles;
+        this.rolesPerUser = rolesPerUser;
+        this.usernamePrefix = usernamePrefix;
+        this.password = password;
+    }
+
+    @Override
+    public void run(String... args) {
+        if (users <= 0 || userRepository.findByUsername(usernamePrefix + 0) != null) {
+            return;
+        }
+        long start = System.nanoTime();
+        Role userRole = roleRepository.findByRoleName("USER")
+                .orElseThrow(() -> new IllegalStateException("The USER role is created by the DataLoader"));
+        List<Role> seededRoles = seedRoles();
+        String encodedPassword = passwordEncoder.encode(password);
+
+        for (int first = 0; first < users; first += CHUNK_SIZE) {
+            int from = first;
+            int to = Math.min(users, first + CHUNK_SIZE);
+            transactionTemplate.executeWithoutResult(status -> {
+                List<User> chunk = new ArrayList<>(to - from);
+                for (int n = from; n < to; n++) {
+                    chunk.add(user(n, encodedPassword, userRole, seededRoles));
+                }
+                userRepository.saveAll(chunk);
+            });
+        }
+        log.info("Seeded {} users and {} roles, {} roles per user, in {} ms", users, seededRoles.size(),
+                rolesPerUser, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private List<Role> seedRoles() {
+        List<Role> seeded = new ArrayList<>(roles);
+        for (int i = 0; i < roles; i++) {
+            Role role = new Role();
+            role.setRoleName("LOADTEST_" + i);
+            seeded.add(role);
+        }
+        return roleRepository.saveAll(seeded);
+    }
+
+    // the USER role and the next roles-per-user - 1 seeded roles, spread round robin over the users
+    private User user(int n, String encodedPassword, Role userRole, List<Role> seededRoles) {
+        List<Role> userRoles = new ArrayList<>(rolesPerUser);
+        userRoles.add(userRole);
+        for (int i = 0; i < Math.min(rolesPerUser - 1, seededRoles.size()); i++) {
+            userRoles.add(seededRoles.get((n + i) % seededRoles.size()));
+        }
+        User user = new User();
+        user.setUsername(usernamePrefix + n);
+        user.setPassword(encodedPassword);
+        user.setRoles(userRoles);
+        return user;
+    }
+}
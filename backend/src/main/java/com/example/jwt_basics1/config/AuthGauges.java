@@ -0,0 +1,113 @@
+package com.example.jwt_basics1.config;
+
+import com.example.jwt_basics1.service.CustomUserDetailsService;
+import com.example.jwt_basics1.service.PasswordHashingService;
+import com.example.jwt_basics1.service.PasswordUpgradeService;
+import com.example.jwt_basics1.service.RefreshTokenService;
+import com.example.jwt_basics1.service.TokenBlacklistService;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+    * The AuthGauges class exports the sizes and counters the token stores, caches and password pools already keep
+    * Nothing is recorded on the request path, every value is read from its service when the registry is scraped
+ */
+@Component
+@RequiredArgsConstructor
+public class AuthGauges implements MeterBinder {
+
+    private final TokenBlacklistService tokenBlacklistService;
+    private final RefreshTokenService refreshTokenService;
+    private final CustomUserDetailsService customUserDetailsService;
+    private final JwtUtil jwtUtil;
+    private final PasswordHashingService passwordHashingService;
+    private final PasswordUpgradeService passwordUpgradeService;
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        // token blacklist and its Bloom filters
+        Gauge.builder("auth.blacklist.size", tokenBlacklistService, TokenBlacklistService::getBlacklistSize)
+                .description("Revoked token ids that did not expire yet")
+                .register(registry);
+        Gauge.builder("auth.blacklist.filter.memory", tokenBlacklistService, TokenBlacklistService::getFilterMemoryBytes)
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("auth.blacklist.filter.false.positive.rate", tokenBlacklistService,
+                        TokenBlacklistService::getFilterExpectedFalsePositiveRate)
+                .tag("kind", "expected")
+                .register(registry);
+        Gauge.builder("auth.blacklist.filter.false.positive.rate", tokenBlacklistService,
+                        TokenBlacklistService::getFilterObservedFalsePositiveRate)
+                .tag("kind", "observed")
+                .register(registry);
+
+        // refresh token -> login IP bindings
+        Gauge.builder("auth.refresh.ips.size", refreshTokenService, RefreshTokenService::getRefreshTokenIpCount)
+                .description("Refresh token IP bindings")
+                .register(registry);
+        FunctionCounter.builder("auth.refresh.ips.capacity.evictions", refreshTokenService,
+                        RefreshTokenService::getRefreshTokenIpCapacityEvictions)
+                .description("IP bindings dropped because the registry was full")
+                .register(registry);
+
+        // user details cache
+        Gauge.builder("auth.user.cache.size", customUserDetailsService, CustomUserDetailsService::getCacheSize)
+                .register(registry);
+        FunctionCounter.builder("auth.user.cache.requests", customUserDetailsService,
+                        service -> service.getCacheStats().hitCount())
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("auth.user.cache.requests", customUserDetailsService,
+                        service -> service.getCacheStats().missCount())
+                .tag("result", "miss")
+                .register(registry);
+        FunctionCounter.builder("auth.user.cache.evictions", customUserDetailsService,
+                        service -> service.getCacheStats().evictionCount())
+                .register(registry);
+        FunctionCounter.builder("auth.user.cache.invalidations", customUserDetailsService,
+                        CustomUserDetailsService::getInvalidationCount)
+                .register(registry);
+
+        // verified token cache
+        Gauge.builder("auth.token.cache.size", jwtUtil, JwtUtil::getVerifiedTokenCacheSize)
+                .register(registry);
+        FunctionCounter.builder("auth.token.cache.requests", jwtUtil, util -> util.getVerifiedTokenCacheStats().hitCount())
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("auth.token.cache.requests", jwtUtil, util -> util.getVerifiedTokenCacheStats().missCount())
+                .tag("result", "miss")
+                .register(registry);
+
+        // password checks of /api/login, the count and the total time of the hashes make a mean, the login timer
+        // of AuthMetrics has the percentiles
+        FunctionTimer.builder("auth.password.hash", passwordHashingService,
+                        PasswordHashingService::getHashCount, PasswordHashingService::getHashNanos, TimeUnit.NANOSECONDS)
+                .description("Password checks on the hashing pool")
+                .register(registry);
+        Gauge.builder("auth.password.hashing.queue", passwordHashingService, PasswordHashingService::getQueueDepth)
+                .register(registry);
+        Gauge.builder("auth.password.hashing.active", passwordHashingService, PasswordHashingService::getActiveCount)
+                .register(registry);
+        FunctionCounter.builder("auth.password.hashing.rejected", passwordHashingService,
+                        PasswordHashingService::getRejectedCount)
+                .description("Logins shed with 429 because the hashing pool was full")
+                .register(registry);
+
+        // re-encoding of old hashes after a login
+        Gauge.builder("auth.password.upgrade.pending", passwordUpgradeService, PasswordUpgradeService::getPendingCount)
+                .register(registry);
+        FunctionCounter.builder("auth.password.upgrade.upgraded", passwordUpgradeService,
+                        PasswordUpgradeService::getUpgradedCount)
+                .register(registry);
+        FunctionCounter.builder("auth.password.upgrade.dropped", passwordUpgradeService,
+                        PasswordUpgradeService::getDroppedCount)
+                .register(registry);
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.jwt_basics1.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*
+    * The AuthMetrics class holds the timers and counters of the authentication pipeline, exported at /actuator/prometheus
+    * Every meter is registered once here, the hot paths only look up an EnumMap and record a System.nanoTime difference
+    * The timers publish a histogram with bounded buckets, the percentiles are computed by the server that scrapes them
+    *
+    *   auth.filter.stage{stage}          JwtAuthenticationFilter: parse (signature or token cache), blacklist,
+    *                                     user_details (cache, database or claims) and validate
+    *   auth.filter.rejections{reason}    requests answered 401 / 500 by the filter
+    *   auth.login{outcome}               AuthenticationService.authenticate, the count per outcome is the rejection count
+    *   auth.refresh{outcome}             RefreshTokenService.refreshAccessToken, same
+ */
+@Component
+public class AuthMetrics {
+
+    public enum FilterStage { PARSE, BLACKLIST, USER_DETAILS, VALIDATE }
+
+    public enum FilterRejection { MISSING_TOKEN, INVALID_TOKEN, BLACKLISTED, USER_NOT_FOUND, VALIDATION_FAILED, ERROR }
+
+    public enum LoginOutcome { SUCCESS, UNKNOWN_USER, BAD_PASSWORD, THROTTLED, ERROR }
+
+    public enum RefreshOutcome { SUCCESS, INVALID_TOKEN, BLACKLISTED, IP_MISMATCH, UNKNOWN_USER, ERROR }
+
+    private final Map<FilterStage, Timer> filterStages = new EnumMap<>(FilterStage.class);
+    private final Map<FilterRejection, Counter> filterRejections = new EnumMap<>(FilterRejection.class);
+    private final Map<LoginOutcome, Timer> logins = new EnumMap<>(LoginOutcome.class);
+    private final Map<RefreshOutcome, Timer> refreshes = new EnumMap<>(RefreshOutcome.class);
+
+    public AuthMetrics(MeterRegistry registry) {
+        for (FilterStage stage : FilterStage.values()) {
+            // a stage takes microseconds when served from the caches, milliseconds when it reaches the database
+            filterStages.put(stage, Timer.builder("auth.filter.stage")
+                    .description("Time of one stage of the JWT authentication filter")
+                    .tag("stage", tagValue(stage))
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(Duration.ofNanos(500))
+                    .maximumExpectedValue(Duration.ofSeconds(1))
+                    .register(registry));
+        }
+        for (FilterRejection reason : FilterRejection.values()) {
+            filterRejections.put(reason, Counter.builder("auth.filter.rejections")
+                    .description("Requests rejected by the JWT authentication filter")
+                    .tag("reason", tagValue(reason))
+                    .register(registry));
+        }
+        for (LoginOutcome outcome : LoginOutcome.values()) {
+            // a login is dominated by the password hash, tens to hundreds of milliseconds
+            logins.put(outcome, Timer.builder("auth.login")
+                    .description("Time of a login, by outcome")
+                    .tag("outcome", tagValue(outcome))
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(Duration.ofMillis(1))
+                    .maximumExpectedValue(Duration.ofSeconds(10))
+                    .register(registry));
+        }
+        for (RefreshOutcome outcome : RefreshOutcome.values()) {
+            refreshes.put(outcome, Timer.builder("auth.refresh")
+                    .description("Time of a token refresh, by outcome")
+                    .tag("outcome", tagValue(outcome))
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(Duration.ofNanos(10_000))
+                    .maximumExpectedValue(Duration.ofSeconds(1))
+                    .register(registry));
+        }
+    }
+
+    public void recordFilterStage(FilterStage stage, long nanos) {
+        filterStages.get(stage).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void filterRejected(FilterRejection reason) {
+        filterRejections.get(reason).increment();
+    }
+
+    public void recordLogin(LoginOutcome outcome, long nanos) {
+        logins.get(outcome).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordRefresh(RefreshOutcome outcome, long nanos) {
+        refreshes.get(outcome).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    // BAD_PASSWORD -> bad_password
+    private static String tagValue(Enum<?> value) {
+        return value.name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.jwt_basics1.config;
+
+import io.opentelemetry.exporter.internal.otlp.traces.TraceRequestMarshaler;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+
+/*
+    * The FileSpanExporter appends every batch of spans to a file as one OTLP JSON ExportTraceServiceRequest per line,
+    * the format read by the otlpjsonfile receiver of the OpenTelemetry collector
+    * A batch is serialized in memory first, so a failing serialization never leaves half a line in the file
+    * The file is bounded: a line that would take it past maxBytes first rolls it over to <file>.1, replacing the
+    * previous one, so the spans never take more than twice maxBytes on disk
+    *
+    * TraceRequestMarshaler is an internal class of opentelemetry-exporter-otlp-common, it has no compatibility
+    * guarantee between releases. The OpenTelemetry version is pinned in the pom and FileSpanExporterTests
+    * checks the lines it writes, an upgrade that changes it fails the build instead of the export
+ */
+@Slf4j
+public class FileSpanExporter implements SpanExporter {
+
+    private final Path file;
+    private final Path rolled;
+    private final long maxBytes;
+
+    private OutputStream out;
+    // bytes in the current file
+    private long size;
+
+    public FileSpanExporter(Path file, long maxBytes) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        this.file = file;
+        this.rolled = file.resolveSibling(file.getFileName() + ".1");
+        this.maxBytes = maxBytes;
+        open();
+    }
+
+    private void open() throws IOException {
+        this.out = Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        this.size = Files.size(file);
+    }
+
+    @Override
+    public synchronized CompletableResultCode export(Collection<SpanData> spans) {
+        try {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            TraceRequestMarshaler.create(spans).writeJsonTo(line);
+            line.write('\n');
+            if (size > 0 && size + line.size() > maxBytes) {
+                rollOver();
+            }
+            line.writeTo(out);
+            size += line.size();
+            return CompletableResultCode.ofSuccess();
+        } catch (IOException e) {
+            log.warn("Cannot write {} spans", spans.size(), e);
+            return CompletableResultCode.ofFailure();
+        }
+    }
+
+    private void rollOver() throws IOException {
+        out.close();
+        Files.move(file, rolled, StandardCopyOption.REPLACE_EXISTING);
+        open();
+    }
+
+    @Override
+    public synchronized CompletableResultCode flush() {
+        try {
+            out.flush();
+            return CompletableResultCode.ofSuccess();
+        } catch (IOException e) {
+            return CompletableResultCode.ofFailure();
+        }
+    }
+
+    @Override
+    public synchronized CompletableResultCode shutdown() {
+        try {
+            out.close();
+            return CompletableResultCode.ofSuccess();
+        } catch (IOException e) {
+            return CompletableResultCode.ofFailure();
+        }
+    }
+}
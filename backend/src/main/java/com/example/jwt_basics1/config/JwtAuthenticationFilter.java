@@ -1,7 +1,13 @@
 package com.example.jwt_basics1.config;
 
+import com.example.jwt_basics1.config.AuthMetrics.FilterRejection;
+import com.example.jwt_basics1.config.AuthMetrics.FilterStage;
 import com.example.jwt_basics1.service.CustomUserDetailsService;
 import com.example.jwt_basics1.service.TokenBlacklistService;
+import com.example.jwt_basics1.service.UserRevocationService;
+import io.jsonwebtoken.JwtException;
+import io.micrometer.tracing.Span;
+import io.micrometer.tracing.Tracer;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -10,13 +16,16 @@ import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import org.springframework.security.authentication.AuthenticationCredentialsNotFoundException;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.userdetails.User;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
 import org.springframework.web.filter.OncePerRequestFilter;
 
 import java.io.IOException;
+import java.util.List;
 
 @RequiredArgsConstructor
 public class JwtAuthenticationFilter extends OncePerRequestFilter {
@@ -24,11 +33,22 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
     final private JwtUtil jwtUtil;
     final private CustomUserDetailsService customUserDetailsService;
     final private TokenBlacklistService tokenBlacklistService;
+    final private UserRevocationService userRevocationService;
+    final private AuthMetrics authMetrics;
+    // the authentication gets its own span, the rest of the chain is outside of it
+    final private Tracer tracer;
+    // claims-trust mode, build the authentication from the verified roles claim instead of loading the user
+    final private boolean claimsTrustEnabled;
 
     @Override
     protected boolean shouldNotFilter(HttpServletRequest request) throws ServletException {
         String path = request.getRequestURI();
-        return path.startsWith("/api/login") || path.startsWith("/api/public") || path.startsWith("/api/refresh-token");
+        return path.startsWith("/api/login") || path.startsWith("/api/public") || path.startsWith("/api/refresh-token")
+                // the replication endpoint checks the shared secret of the cluster instead of a token
+                || path.startsWith("/internal/replication")
+                || path.equals("/.well-known/jwks.json")
+                // probed and scraped without a token, SecurityConfig permits the scraper on the management port only
+                || path.startsWith("/actuator/health") || path.equals("/actuator/prometheus");
         // return path.equals("/login") || path.equals("/refresh_token");
     }
 
@@ -38,6 +58,23 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
                                     @NonNull FilterChain filterChain)
             throws ServletException, IOException {
 
+        boolean authenticated;
+        Span span = tracer.nextSpan().name("jwt.authentication").start();
+        try (Tracer.SpanInScope scope = tracer.withSpan(span)) {
+            authenticated = authenticate(request, response);
+            span.tag("authenticated", authenticated);
+        } finally {
+            span.end();
+        }
+
+        // pass the request along the filter chain
+        if (authenticated) {
+            filterChain.doFilter(request, response);
+        }
+    }
+
+    // Authenticate the request from its token, false when the response was already written with the rejection
+    private boolean authenticate(HttpServletRequest request, HttpServletResponse response) throws IOException {
         // retrieve the Authorization header from the request
         String header = request.getHeader(JwtProperties.HEADER_STRING);
         String token;
@@ -56,25 +93,53 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
         // Strict approach: if no token is provided, return 401 Unauthorized
         if (token == null) {
+            authMetrics.filterRejected(FilterRejection.MISSING_TOKEN);
             response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
             response.getWriter().write("Missing authentication token");
-            return;
+            return false;
+        }
+
+        // verify the signature and parse the claims once, the result is reused for every check below
+        VerifiedToken verifiedToken;
+        long start = System.nanoTime();
+        try {
+            verifiedToken = jwtUtil.parseToken(token);
+        } catch (JwtException | IllegalArgumentException ex) {
+            // invalid signature, malformed or expired token
+            authMetrics.filterRejected(FilterRejection.INVALID_TOKEN);
+            response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+            response.getWriter().write("Invalid or expired token");
+            return false;
         }
 
-        if (tokenBlacklistService.isTokenBlacklisted(jwtUtil.extractJWTID(token))) {
+        long parsed = System.nanoTime();
+        authMetrics.recordFilterStage(FilterStage.PARSE, parsed - start);
+
+        boolean blacklisted = tokenBlacklistService.isTokenBlacklisted(verifiedToken.getJwtID());
+        long checked = System.nanoTime();
+        authMetrics.recordFilterStage(FilterStage.BLACKLIST, checked - parsed);
+        if (blacklisted) {
+            authMetrics.filterRejected(FilterRejection.BLACKLISTED);
             response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
             response.getWriter().write("Token is blacklisted");
-            return;
+            return false;
         }
 
         try {
-            // extract the username from the token
-            String username = jwtUtil.extractUsername(token);
-            // load user details using the extracted username
-            UserDetails userDetails = customUserDetailsService.loadUserByUsername(username);
+            // the username is the subject of the token
+            String username = verifiedToken.getSubject();
+            // in claims-trust mode the signed roles claim is used as is, unless the user changed after the token was issued
+            // otherwise load user details using the extracted username
+            UserDetails userDetails = claimsTrustEnabled && !userRevocationService.isIssuedBeforeChange(verifiedToken)
+                    ? userDetailsFromClaims(verifiedToken)
+                    : customUserDetailsService.loadUserByUsername(username);
+            long loaded = System.nanoTime();
+            authMetrics.recordFilterStage(FilterStage.USER_DETAILS, loaded - checked);
 
             // validate the token with the loaded user details
-            if (jwtUtil.validateToken(token, userDetails)) {
+            boolean valid = userDetails != null && jwtUtil.validateToken(verifiedToken, userDetails);
+            authMetrics.recordFilterStage(FilterStage.VALIDATE, System.nanoTime() - loaded);
+            if (valid) {
                 // create an authentication object and set it in the Security Context
                 UsernamePasswordAuthenticationToken authentication =
                         new UsernamePasswordAuthenticationToken(userDetails, null, userDetails.getAuthorities());
@@ -86,24 +151,36 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
                 SecurityContextHolder.getContext().setAuthentication(authentication);
             } else {
                 // If token validation fails, return 401 Unauthorized
+                authMetrics.filterRejected(userDetails == null
+                        ? FilterRejection.USER_NOT_FOUND : FilterRejection.VALIDATION_FAILED);
                 response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
                 response.getWriter().write("Invalid or expired token");
-                return;
+                return false;
             }
         } catch (UsernameNotFoundException | AuthenticationCredentialsNotFoundException ex) {
             // Return 401 Unauthorized for invalid credentials
+            authMetrics.filterRejected(FilterRejection.USER_NOT_FOUND);
             response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
             response.getWriter().write(ex.getMessage());
-            return;
+            return false;
             // any other exception, such as token expiration or invalid signature,
         } catch (Exception ex) {
             // For other exceptions, return 500 Internal Server Error
+            authMetrics.filterRejected(FilterRejection.ERROR);
             response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
             response.getWriter().write("An error occurred while processing the token");
-            return;
+            return false;
         }
 
-        // pass the request along the filter chain
-        filterChain.doFilter(request, response);
+        return true;
+    }
+
+    // Build the user details from the claims of a verified token, without a database lookup
+    private UserDetails userDetailsFromClaims(VerifiedToken verifiedToken) {
+        List<SimpleGrantedAuthority> authorities = verifiedToken.getRoles().stream()
+                .map(SimpleGrantedAuthority::new)
+                .toList();
+        // the password is not needed after the token was verified
+        return new User(verifiedToken.getSubject(), "", authorities);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,362 @@
+package com.example.jwt_basics1.config;
+
+import io.jsonwebtoken.security.Keys;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/*
+    * The JwtKeyRing class holds the keys that sign and verify the tokens, loaded from a properties file
+    * that every node of the application reads, so a token issued by one node is valid on all of them and across restarts
+    *
+    *   key.<kid>.alg=<HS256, ES256 or EdDSA, HS256 when missing>
+    *   key.<kid>.secret=<base64 HMAC-SHA256 secret, at least 32 bytes, for HS256>
+    *   key.<kid>.private=<base64 PKCS#8 private key>, key.<kid>.public=<base64 X.509 public key, for ES256 and EdDSA>
+    *   key.<kid>.not-before=<epoch millis, the key signs from then on>
+    *   key.<kid>.not-after=<epoch millis, the key does not verify anymore, optional>
+    *
+    * The tokens are signed by the key with the latest not-before that already passed, and carry its kid in the header
+    * The verification looks up the key of the kid in a map, every key of the file that did not expire verifies
+    *
+    * Rotation: when the signing key is older than the rotation interval, or of another algorithm than jwt.keys.algorithm,
+    * one node (under a file lock) adds a new key whose not-before is publish-ahead in the future, so every node
+    * and every cached copy of the JWKS knows the new public key before any token is signed with it
+    * The old key gets a not-after one refresh token lifetime after the switch, the overlap in which its tokens stay valid
+    * The file is reloaded every reload interval, a key can also be added or removed by hand
+ */
+@Slf4j
+@Component
+public class JwtKeyRing {
+
+    private static final String KEY_PREFIX = "key.";
+    private static final int SECRET_BYTES = 32;
+    // the last refresh token signed by a retired key must still verify, plus some clock skew between the nodes
+    private static final long OVERLAP_MILLIS = (long) JwtProperties.REFRESH_TOKEN_EXPIRATION_TIME + 60_000;
+
+    private final Path file;
+    private final Path lockFile;
+    private final Duration rotationInterval;
+    private final long activationDelayMillis;
+    private final Algorithm algorithm;
+    private final SecureRandom random = new SecureRandom();
+
+    // replaced as a whole on every reload, the readers never lock
+    private volatile Map<String, RingKey> keys = Map.of();
+    private volatile RingKey signingKey;
+    private long loadedModifiedTime = -1;
+
+    public JwtKeyRing(@Value("${jwt.keys.file:./data/jwt-keys.properties}") Path file,
+                      @Value("${jwt.keys.rotation-interval:P30D}") Duration rotationInterval,
+                      @Value("${jwt.keys.reload-interval-millis:30000}") long reloadIntervalMillis,
+                      @Value("${jwt.keys.publish-ahead:PT10M}") Duration publishAhead,
+                      @Value("${jwt.keys.algorithm:HS256}") Algorithm algorithm) {
+        this.file = file.toAbsolutePath();
+        this.lockFile = this.file.resolveSibling(this.file.getFileName() + ".lock");
+        this.rotationInterval = rotationInterval;
+        // at least two reloads, so every node reads the new key before it signs
+        this.activationDelayMillis = Math.max(publishAhead.toMillis(), 2 * reloadIntervalMillis);
+        this.algorithm = algorithm;
+        try {
+            Files.createDirectories(this.file.getParent());
+            // the first node that starts creates the file, with a key that signs right away
+            withFileLock(() -> {
+                if (!Files.exists(this.file)) {
+                    Properties properties = new Properties();
+                    addKey(properties, System.currentTimeMillis());
+                    write(properties);
+                    log.info("Created the JWT key file {}", this.file);
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create the JWT key file " + this.file, e);
+        }
+        reload();
+        if (signingKey == null) {
+            throw new IllegalStateException("No active signing key in " + this.file);
+        }
+    }
+
+    public RingKey getSigningKey() {
+        return signingKey;
+    }
+
+    // the key of a kid, null when the kid is unknown or its key expired
+    public Key findVerificationKey(String kid) {
+        RingKey key = kid == null ? null : keys.get(kid);
+        return key == null ? null : key.getVerifyKey();
+    }
+
+    // every key that verifies, including the keys that do not sign yet, replaced as a whole when it changes
+    public Map<String, RingKey> getVerificationKeys() {
+        return keys;
+    }
+
+    @Scheduled(fixedDelayString = "${jwt.keys.reload-interval-millis:30000}",
+            initialDelayString = "${jwt.keys.reload-interval-millis:30000}")
+    public void scheduledMaintenance() {
+        try {
+            rotateIfDue();
+        } catch (IOException | RuntimeException e) {
+            log.error("Cannot rotate the JWT keys in {}", file, e);
+        }
+        try {
+            reload();
+        } catch (RuntimeException e) {
+            // the keys loaded before stay in use
+            log.error("Cannot reload the JWT keys from {}", file, e);
+        }
+    }
+
+    // Read the file again when it changed, and pick the signing key for the current time in any case
+    synchronized void reload() {
+        long now = System.currentTimeMillis();
+        Map<String, RingKey> current = keys;
+        try {
+            long modifiedTime = Files.getLastModifiedTime(file).toMillis();
+            if (modifiedTime != loadedModifiedTime) {
+                current = parse(read());
+                loadedModifiedTime = modifiedTime;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read the JWT key file " + file, e);
+        }
+
+        Map<String, RingKey> valid = new HashMap<>();
+        RingKey signing = null;
+        for (RingKey key : current.values()) {
+            if (key.getNotAfter() != 0 && key.getNotAfter() <= now) {
+                continue;
+            }
+            valid.put(key.getKid(), key);
+            if (key.getNotBefore() <= now && (signing == null || key.getNotBefore() > signing.getNotBefore())) {
+                signing = key;
+            }
+        }
+        if (signing == null) {
+            throw new IllegalStateException("No active signing key in " + file);
+        }
+        if (signingKey != null && !signing.getKid().equals(signingKey.getKid())) {
+            log.info("Signing the tokens with the JWT key {}", signing.getKid());
+        }
+        if (!valid.equals(keys)) {
+            keys = Map.copyOf(valid);
+        }
+        signingKey = signing;
+    }
+
+    // Add a new key when the newest key is older than the rotation interval or of another algorithm, one node does it for all
+    synchronized void rotateIfDue() throws IOException {
+        if (rotationInterval.isZero() || rotationInterval.isNegative()) {
+            return;
+        }
+        withFileLock(() -> {
+            // read under the lock, another node may have rotated already
+            Properties properties = read();
+            Map<String, RingKey> current = parse(properties);
+            long now = System.currentTimeMillis();
+            RingKey newest = current.values().stream().max(Comparator.comparingLong(RingKey::getNotBefore)).orElse(null);
+            if (newest != null && newest.getAlgorithm() == algorithm
+                    && newest.getNotBefore() + rotationInterval.toMillis() > now) {
+                return;
+            }
+
+            long notBefore = now + activationDelayMillis;
+            for (RingKey key : current.values()) {
+                if (key.getNotAfter() != 0 && key.getNotAfter() <= now) {
+                    removeKey(properties, key.getKid());
+                } else if (key.getNotAfter() == 0) {
+                    properties.setProperty(KEY_PREFIX + key.getKid() + ".not-after", Long.toString(notBefore + OVERLAP_MILLIS));
+                }
+            }
+            String kid = addKey(properties, notBefore);
+            write(properties);
+            log.info("Rotated the JWT keys, {} signs from {}", kid, notBefore);
+        });
+    }
+
+    private String addKey(Properties properties, long notBefore) {
+        String kid = "k" + Long.toString(notBefore, 36);
+        String prefix = KEY_PREFIX + kid;
+        Base64.Encoder base64 = Base64.getEncoder();
+        properties.setProperty(prefix + ".alg", algorithm.name());
+        if (algorithm == Algorithm.HS256) {
+            byte[] secret = new byte[SECRET_BYTES];
+            random.nextBytes(secret);
+            properties.setProperty(prefix + ".secret", base64.encodeToString(secret));
+        } else {
+            KeyPair keyPair = algorithm.generateKeyPair(random);
+            properties.setProperty(prefix + ".private", base64.encodeToString(keyPair.getPrivate().getEncoded()));
+            properties.setProperty(prefix + ".public", base64.encodeToString(keyPair.getPublic().getEncoded()));
+        }
+        properties.setProperty(prefix + ".not-before", Long.toString(notBefore));
+        return kid;
+    }
+
+    private static void removeKey(Properties properties, String kid) {
+        properties.stringPropertyNames().stream()
+                .filter(name -> name.startsWith(KEY_PREFIX + kid + "."))
+                .forEach(properties::remove);
+    }
+
+    private static Map<String, RingKey> parse(Properties properties) {
+        Set<String> kids = new HashSet<>();
+        for (String name : properties.stringPropertyNames()) {
+            if (name.startsWith(KEY_PREFIX) && name.lastIndexOf('.') > KEY_PREFIX.length()) {
+                kids.add(name.substring(KEY_PREFIX.length(), name.lastIndexOf('.')));
+            }
+        }
+
+        Map<String, RingKey> parsed = new HashMap<>();
+        for (String kid : kids) {
+            String prefix = KEY_PREFIX + kid;
+            Algorithm algorithm = Algorithm.valueOf(properties.getProperty(prefix + ".alg", "HS256").trim());
+            long notBefore = Long.parseLong(properties.getProperty(prefix + ".not-before", "0").trim());
+            long notAfter = Long.parseLong(properties.getProperty(prefix + ".not-after", "0").trim());
+            if (algorithm == Algorithm.HS256) {
+                // a secret shorter than 256 bits is rejected here, by hmacShaKeyFor
+                SecretKey secret = Keys.hmacShaKeyFor(decode(properties, prefix + ".secret"));
+                parsed.put(kid, new RingKey(kid, algorithm, secret, secret, notBefore, notAfter));
+            } else {
+                PrivateKey privateKey = algorithm.privateKey(decode(properties, prefix + ".private"));
+                PublicKey publicKey = algorithm.publicKey(decode(properties, prefix + ".public"));
+                parsed.put(kid, new RingKey(kid, algorithm, privateKey, publicKey, notBefore, notAfter));
+            }
+        }
+        return parsed;
+    }
+
+    private static byte[] decode(Properties properties, String name) {
+        String value = properties.getProperty(name);
+        if (value == null) {
+            throw new IllegalStateException("Missing " + name + " in the JWT key file");
+        }
+        return Base64.getDecoder().decode(value.trim());
+    }
+
+    private Properties read() throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        }
+        return properties;
+    }
+
+    // written aside and moved over the file, a reader never sees half a file
+    private void write(Properties properties) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temporary)) {
+            properties.store(out, "JWT signing keys, see JwtKeyRing");
+        }
+        try {
+            Files.setPosixFilePermissions(temporary, PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException e) {
+            // not a POSIX file system
+        }
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // between the nodes that share the file, the lock is released when the block ends
+    private void withFileLock(IoAction action) throws IOException {
+        try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock ignored = channel.lock()) {
+            action.run();
+        }
+    }
+
+    @FunctionalInterface
+    private interface IoAction {
+        void run() throws IOException;
+    }
+
+    // the algorithms of the keys, jjwt picks the signature algorithm from the type of the key
+    public enum Algorithm {
+        HS256(null),
+        ES256("EC"),
+        EdDSA("Ed25519");
+
+        private final String keyAlgorithm;
+
+        Algorithm(String keyAlgorithm) {
+            this.keyAlgorithm = keyAlgorithm;
+        }
+
+        KeyPair generateKeyPair(SecureRandom random) {
+            try {
+                KeyPairGenerator generator = KeyPairGenerator.getInstance(keyAlgorithm);
+                if (this == ES256) {
+                    generator.initialize(new ECGenParameterSpec("secp256r1"), random);
+                }
+                return generator.generateKeyPair();
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Cannot generate a " + name() + " key", e);
+            }
+        }
+
+        PrivateKey privateKey(byte[] pkcs8) {
+            try {
+                return KeyFactory.getInstance(keyAlgorithm).generatePrivate(new PKCS8EncodedKeySpec(pkcs8));
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Invalid " + name() + " private key", e);
+            }
+        }
+
+        PublicKey publicKey(byte[] x509) {
+            try {
+                return KeyFactory.getInstance(keyAlgorithm).generatePublic(new X509EncodedKeySpec(x509));
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Invalid " + name() + " public key", e);
+            }
+        }
+    }
+
+    // signKey and verifyKey are the same secret for HS256, the private and the public key otherwise
+    @Getter
+    @RequiredArgsConstructor
+    public static final class RingKey {
+        private final String kid;
+        private final Algorithm algorithm;
+        private final Key signKey;
+        private final Key verifyKey;
+        private final long notBefore;
+        private final long notAfter;
+
+        public boolean isAsymmetric() {
+            return algorithm != Algorithm.HS256;
+        }
+    }
+}
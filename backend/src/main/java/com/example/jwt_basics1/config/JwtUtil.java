@@ -1,51 +1,90 @@
 package com.example.jwt_basics1.config;
 
 import com.example.jwt_basics1.dto.AuthenticationRequest;
+import com.example.jwt_basics1.dto.AuthenticationResponse;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwsHeader;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
-import io.jsonwebtoken.security.Keys;
+import io.jsonwebtoken.LocatorAdapter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Component;
 
-import javax.crypto.KeyGenerator;
-import javax.crypto.SecretKey;
+import javax.crypto.Mac;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.Key;
-import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.function.Function;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 
 @Component
 public class JwtUtil {
 
-    private final Key key;  // Store the generated key in a field
+    private static final String ISSUED_BY = "learning JWT with Spring Security";
+    private static final String ISSUED_BY_JSON = ",\"issuedBy\":\"" + ISSUED_BY + "\"";
+    private static final Base64.Encoder BASE64URL = Base64.getUrlEncoder().withoutPadding();
+    // 32 bytes of HMAC-SHA256 in base64url without padding
+    private static final int HS256_SIGNATURE_CHARS = 43;
+    private static final ThreadLocal<ThreadMac> THREAD_MAC = new ThreadLocal<>();
 
-    public JwtUtil() {
-        try {
-            // private final String SECRET_KEY = JwtProperties.SECRET;
-            KeyGenerator secretKeyGen = KeyGenerator.getInstance("HmacSHA256");
-            this.key = Keys.hmacShaKeyFor(secretKeyGen.generateKey().getEncoded());
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
-        }
+    private final JwtKeyRing keyRing;
+    private final JwtParser parser; // built once, it is thread-safe and reused for every request
 
-    }
+    // the encoded header of the current HMAC signing key, replaced when the key rotates
+    private volatile EncodedHeader encodedHeader;
+
+    // compact token -> its verified content, a client sends the same access token for its whole life
+    // the key is the token itself, never a hash of it, so two tokens can never share an entry
+    // null when the cache is disabled (maximum-size 0)
+    private final Cache<String, VerifiedToken> verifiedTokens;
 
-    private Key getKey() {
-        return this.key;  // Use the stored key
+    public JwtUtil(JwtKeyRing keyRing,
+                   @Value("${jwt.token-cache.maximum-size:100000}") long cacheMaximumSize,
+                   @Value("${jwt.token-cache.max-ttl:PT5M}") Duration cacheMaxTtl) {
+        this.keyRing = keyRing;
+        this.verifiedTokens = cacheMaximumSize <= 0 ? null : Caffeine.newBuilder()
+                .maximumSize(cacheMaximumSize)
+                .expireAfter(new TokenExpiry(cacheMaxTtl.toNanos()))
+                .recordStats()
+                .build();
+        // the verification key is picked by the kid header of the token, a token without a known kid is rejected
+        this.parser = Jwts.parser().keyLocator(new LocatorAdapter<Key>() {
+            @Override
+            protected Key locate(JwsHeader header) {
+                Key key = keyRing.findVerificationKey(header.getKeyId());
+                if (key == null) {
+                    throw new JwtException("Unknown signing key " + header.getKeyId());
+                }
+                return key;
+            }
+        }).build();
     }
 
-    // Generate a JWT token for a user, first time login
+    // Generate a JWT token for a user, first time login, with the jjwt builder (issueTokenPair is the lean path)
     public String generateToken(AuthenticationRequest authenticationRequest,
                                 UserDetails userDetails, String jwtID) {
 
         Map<String, Object> claims = new HashMap<>();
+        JwtKeyRing.RingKey signingKey = keyRing.getSigningKey();
 
         return Jwts.builder()
+                .header().keyId(signingKey.getKid()).and()
                 .claims()
                 .add(claims)
                 .subject(userDetails.getUsername())
@@ -55,18 +94,20 @@ public class JwtUtil {
                 .and()
                 .claim("roles", userDetails.getAuthorities().stream().map(GrantedAuthority::getAuthority)
                         .collect(Collectors.toList()))
-                .claim("issuedBy", "learning JWT with Spring Security")
-                .signWith(getKey())
+                .claim("issuedBy", ISSUED_BY)
+                .signWith(signingKey.getSignKey())
                 .compact();
     }
 
-    // Generate a JWT token for a user, refresh token
+    // Generate a JWT token for a user, refresh token, with the jjwt builder
     public String generateRefreshToken(AuthenticationRequest authenticationRequest,
                                 UserDetails userDetails, String jwtID) {
 
         Map<String, Object> claims = new HashMap<>();
+        JwtKeyRing.RingKey signingKey = keyRing.getSigningKey();
 
         return Jwts.builder()
+                .header().keyId(signingKey.getKid()).and()
                 .claims()
                 .add(claims)
                 .subject(userDetails.getUsername())
@@ -74,58 +115,254 @@ public class JwtUtil {
                 .issuedAt(new Date(System.currentTimeMillis()))
                 .expiration(new Date(System.currentTimeMillis() + JwtProperties.REFRESH_TOKEN_EXPIRATION_TIME))
                 .and()
-                .claim("issuedBy", "learning JWT with Spring Security")
-                .signWith(getKey())
+                .claim("issuedBy", ISSUED_BY)
+                .signWith(signingKey.getSignKey())
                 .compact();
     }
 
-    // Extract the expiration date from a JWT token and implicitly validate the token
-    // This implementation implicitly validates the signature when extracting claims:
-    public boolean validateToken(String token, UserDetails userDetails) {
+    // Issue the access and the refresh token of a login or a refresh at once, they share the subject, the id and the times
+    // with an HMAC key the tokens are written directly: the header is encoded once per key, the payload is built
+    // as JSON text, and the MAC of the thread is reused, the same claims as generateToken / generateRefreshToken
+    public AuthenticationResponse issueTokenPair(UserDetails userDetails, String jwtID) {
+        JwtKeyRing.RingKey signingKey = keyRing.getSigningKey();
+        long now = System.currentTimeMillis();
+        if (signingKey.isAsymmetric()) {
+            return issueTokenPairWithBuilder(signingKey, userDetails, jwtID, now);
+        }
+
+        StringBuilder json = new StringBuilder(256);
+        json.append("{\"jti\":");
+        appendJsonString(json, jwtID);
+        json.append(",\"sub\":");
+        appendJsonString(json, userDetails.getUsername());
+        json.append(",\"iat\":").append(now / 1000);
+        int sharedLength = json.length();
+
+        json.append(",\"exp\":").append((now + JwtProperties.ACCESS_TOKEN_EXPIRATION_TIME) / 1000).append(",\"roles\":[");
+        boolean first = true;
+        for (GrantedAuthority authority : userDetails.getAuthorities()) {
+            if (!first) {
+                json.append(',');
+            }
+            appendJsonString(json, authority.getAuthority());
+            first = false;
+        }
+        json.append(']').append(ISSUED_BY_JSON).append('}');
+        String accessToken = signHmac(signingKey, json);
+
+        // the refresh token has the same start, without the roles
+        json.setLength(sharedLength);
+        json.append(",\"exp\":").append((now + JwtProperties.REFRESH_TOKEN_EXPIRATION_TIME) / 1000)
+                .append(ISSUED_BY_JSON).append('}');
+        String refreshToken = signHmac(signingKey, json);
+
+        return new AuthenticationResponse(accessToken, refreshToken);
+    }
+
+    // the signature of ES256 / EdDSA is the expensive part, the builder of jjwt is kept for them
+    private AuthenticationResponse issueTokenPairWithBuilder(JwtKeyRing.RingKey signingKey, UserDetails userDetails,
+                                                             String jwtID, long now) {
+        Date issuedAt = new Date(now);
+        List<String> roles = new ArrayList<>(userDetails.getAuthorities().size());
+        for (GrantedAuthority authority : userDetails.getAuthorities()) {
+            roles.add(authority.getAuthority());
+        }
+        String accessToken = Jwts.builder()
+                .header().keyId(signingKey.getKid()).and()
+                .id(jwtID)
+                .subject(userDetails.getUsername())
+                .issuedAt(issuedAt)
+                .expiration(new Date(now + JwtProperties.ACCESS_TOKEN_EXPIRATION_TIME))
+                .claim("roles", roles)
+                .claim("issuedBy", ISSUED_BY)
+                .signWith(signingKey.getSignKey())
+                .compact();
+        String refreshToken = Jwts.builder()
+                .header().keyId(signingKey.getKid()).and()
+                .id(jwtID)
+                .subject(userDetails.getUsername())
+                .issuedAt(issuedAt)
+                .expiration(new Date(now + JwtProperties.REFRESH_TOKEN_EXPIRATION_TIME))
+                .claim("issuedBy", ISSUED_BY)
+                .signWith(signingKey.getSignKey())
+                .compact();
+        return new AuthenticationResponse(accessToken, refreshToken);
+    }
+
+    // header.payload.signature, written as ASCII bytes into a single array
+    private String signHmac(JwtKeyRing.RingKey signingKey, CharSequence payloadJson) {
+        byte[] header = encodedHeader(signingKey);
+        byte[] payload = BASE64URL.encode(payloadJson.toString().getBytes(StandardCharsets.UTF_8));
+        int signingInputLength = header.length + 1 + payload.length;
+
+        byte[] token = new byte[signingInputLength + 1 + HS256_SIGNATURE_CHARS];
+        System.arraycopy(header, 0, token, 0, header.length);
+        token[header.length] = '.';
+        System.arraycopy(payload, 0, token, header.length + 1, payload.length);
+
+        Mac mac = macFor(signingKey);
+        mac.update(token, 0, signingInputLength);
+        byte[] signature = BASE64URL.encode(mac.doFinal());
+
+        token[signingInputLength] = '.';
+        System.arraycopy(signature, 0, token, signingInputLength + 1, signature.length);
+        return new String(token, StandardCharsets.US_ASCII);
+    }
+
+    private byte[] encodedHeader(JwtKeyRing.RingKey signingKey) {
+        EncodedHeader current = encodedHeader;
+        if (current == null || current.signingKey != signingKey) {
+            StringBuilder json = new StringBuilder(64).append("{\"kid\":");
+            appendJsonString(json, signingKey.getKid());
+            json.append(",\"alg\":\"HS256\"}");
+            current = new EncodedHeader(signingKey, BASE64URL.encode(json.toString().getBytes(StandardCharsets.UTF_8)));
+            encodedHeader = current;
+        }
+        return current.bytes;
+    }
+
+    // one initialized MAC per platform thread, a virtual thread is not reused so it clones the MAC of the key
+    private Mac macFor(JwtKeyRing.RingKey signingKey) {
+        ThreadMac current = THREAD_MAC.get();
+        if (current != null && current.signingKey == signingKey) {
+            current.mac.reset();
+            return current.mac;
+        }
         try {
-            // extract the username from the JWT token
-            String username = extractUsername(token);
-            // If signature verification fails, extractUsername will throw an exception.
-
-            // check if the username extracted from the JWT token matches the username in the UserDetails object
-            // and the token is not expired
-            return (username.equals(userDetails.getUsername()) && !isTokenExpired(token));
-        } catch (Exception e) {
-            // Handle the invalid signature here
-            throw new RuntimeException("The token signature is invalid: " + e.getMessage());
+            EncodedHeader header = encodedHeader;
+            Mac mac;
+            if (header != null && header.signingKey == signingKey && header.prototype != null) {
+                mac = (Mac) header.prototype.clone();
+            } else {
+                mac = Mac.getInstance("HmacSHA256");
+                mac.init(signingKey.getSignKey());
+            }
+            if (!Thread.currentThread().isVirtual()) {
+                THREAD_MAC.set(new ThreadMac(signingKey, mac));
+            }
+            return mac;
+        } catch (GeneralSecurityException | CloneNotSupportedException e) {
+            throw new IllegalStateException("Cannot create the HMAC of the signing key", e);
+        }
+    }
+
+    private static void appendJsonString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
         }
-        // Other exceptions related to token parsing can also be caught here if necessary
+        json.append('"');
+    }
+
+    // Parse and verify a JWT token once, the result is passed along instead of parsing the token again
+    // This implementation validates the signature (and the exp claim) while extracting the claims,
+    // an invalid or expired token throws a JwtException
+    // A token verified before is taken from the cache until its exp, the revocation is still checked by the caller
+    public VerifiedToken parseToken(String token) {
+        if (verifiedTokens == null) {
+            return verify(token);
+        }
+        VerifiedToken cached = verifiedTokens.getIfPresent(token);
+        if (cached != null) {
+            return cached;
+        }
+        // a token that fails is not cached, the exception is thrown again on every try
+        VerifiedToken verified = verify(token);
+        verifiedTokens.put(token, verified);
+        return verified;
+    }
+
+    // hit and miss counters of the verified token cache, empty when it is disabled
+    public CacheStats getVerifiedTokenCacheStats() {
+        return verifiedTokens == null ? CacheStats.empty() : verifiedTokens.stats();
     }
 
-    // Extract the username from a JWT token
-    public String extractUsername(String token) {
-        return extractClaim(token, Claims::getSubject);
+    public long getVerifiedTokenCacheSize() {
+        return verifiedTokens == null ? 0 : verifiedTokens.estimatedSize();
     }
 
-    // Extract the jwtID from a JWT token
-    public String extractJWTID(String token) { return extractClaim(token, Claims::getId); }
+    private VerifiedToken verify(String token) {
+        Claims claims = parser.parseSignedClaims(token).getPayload();
+        return new VerifiedToken(
+                claims.getSubject(),
+                claims.getId(),
+                extractRoles(claims),
+                claims.getExpiration(),
+                claims.getIssuedAt());
+    }
+
+    // Validate an already verified token against the loaded user details
+    public boolean validateToken(VerifiedToken token, UserDetails userDetails) {
+        // check if the username extracted from the JWT token matches the username in the UserDetails object
+        // and the token is not expired
+        return token.getSubject().equals(userDetails.getUsername()) && !token.isExpired();
+    }
 
-    private <T> T extractClaim(String string, Function<Claims, T> claimsResolver) {
-        final Claims claims = extractAllClaims(string);
-        return claimsResolver.apply(claims);
+    private List<String> extractRoles(Claims claims) {
+        Object roles = claims.get("roles");
+        if (!(roles instanceof List<?> list)) {
+            return List.of();
+        }
+        return list.stream().map(String::valueOf).toList();
     }
 
-    // Extract all claims from a JWT token
-    private Claims extractAllClaims(String token) {
-        SecretKey secretKey = (SecretKey) getKey();
-        return Jwts
-                .parser()
-                .verifyWith(secretKey)
-                .build().parseSignedClaims(token).getPayload();
+    private static final class EncodedHeader {
+        private final JwtKeyRing.RingKey signingKey;
+        private final byte[] bytes;
+        // an initialized MAC of the key, cloned by the threads that do not keep their own
+        private final Mac prototype;
+
+        EncodedHeader(JwtKeyRing.RingKey signingKey, byte[] bytes) {
+            this.signingKey = signingKey;
+            this.bytes = bytes;
+            Mac mac;
+            try {
+                mac = Mac.getInstance("HmacSHA256");
+                mac.init(signingKey.getSignKey());
+            } catch (GeneralSecurityException e) {
+                mac = null;
+            }
+            this.prototype = mac;
+        }
     }
 
-    // Check if a JWT token is expired
-    private Boolean isTokenExpired(String token) {
-        return extractExpiration(token).before(new Date(System.currentTimeMillis()));
+    @RequiredArgsConstructor
+    private static final class ThreadMac {
+        private final JwtKeyRing.RingKey signingKey;
+        private final Mac mac;
     }
 
-    // Extract the expiration date from a JWT token
-    public Date extractExpiration(String token) {
-        return extractClaim(token, Claims::getExpiration);
+    // an entry lives until the exp of its token, and never longer than the max ttl
+    // so a key removed from the key ring stops being trusted through the cache after the max ttl at the latest
+    @RequiredArgsConstructor
+    private static final class TokenExpiry implements Expiry<String, VerifiedToken> {
+        private final long maxTtlNanos;
+
+        @Override
+        public long expireAfterCreate(String token, VerifiedToken verified, long currentTime) {
+            if (verified.getExpiration() == null) {
+                return maxTtlNanos;
+            }
+            long untilExpiration = TimeUnit.MILLISECONDS.toNanos(
+                    verified.getExpiration().getTime() - System.currentTimeMillis());
+            return Math.max(0, Math.min(untilExpiration, maxTtlNanos));
+        }
+
+        @Override
+        public long expireAfterUpdate(String token, VerifiedToken verified, long currentTime, long currentDuration) {
+            return expireAfterCreate(token, verified, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String token, VerifiedToken verified, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
     }
 }
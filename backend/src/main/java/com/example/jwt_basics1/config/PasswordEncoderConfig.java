@@ -0,0 +1,80 @@
+package com.example.jwt_basics1.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.DelegatingPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.crypto.password.Pbkdf2PasswordEncoder;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+    * The PasswordEncoderConfig class creates the password encoder of the application
+    * New hashes are stored with the prefix of their algorithm ({bcrypt}$2a$12$...), so the algorithm and the cost
+    * can change without a reset of the passwords, the old hashes are upgraded on the next login (PasswordUpgradeService)
+    * The hashes stored before the prefixes (a plain BCrypt hash) are still checked with BCrypt
+ */
+@Slf4j
+@Configuration
+public class PasswordEncoderConfig {
+
+    // calibration never goes below this cost, whatever the hardware
+    private static final int MIN_CALIBRATED_STRENGTH = 10;
+    private static final String CALIBRATION_PASSWORD = "calibration-password";
+
+    // static, the encoder is needed before the configuration classes that use it
+    @Bean
+    public static PasswordEncoder passwordEncoder(@Value("${security.password.encoder:bcrypt}") String encoderId,
+                                                  @Value("${security.password.bcrypt.strength:10}") int strength,
+                                                  @Value("${security.password.bcrypt.calibrate:false}") boolean calibrate,
+                                                  @Value("${security.password.bcrypt.target-millis:250}") long targetMillis) {
+        int bcryptStrength = calibrate ? calibrateBCrypt(targetMillis) : strength;
+
+        Map<String, PasswordEncoder> encoders = new HashMap<>();
+        encoders.put("bcrypt", new BCryptPasswordEncoder(bcryptStrength));
+        encoders.put("pbkdf2@SpringSecurity_v5_8", Pbkdf2PasswordEncoder.defaultsForSpringSecurity_v5_8());
+        if (!encoders.containsKey(encoderId)) {
+            throw new IllegalStateException("Unknown security.password.encoder " + encoderId + ", expected one of " + encoders.keySet());
+        }
+
+        DelegatingPasswordEncoder passwordEncoder = new DelegatingPasswordEncoder(encoderId, encoders);
+        passwordEncoder.setDefaultPasswordEncoderForMatches(new BCryptPasswordEncoder());
+        return passwordEncoder;
+    }
+
+    // Pick the highest BCrypt cost whose hash still takes at most the target time on this machine
+    // every step of the cost doubles the time, so the costs are tried from the lowest until the next would be over
+    static int calibrateBCrypt(long targetMillis) {
+        long targetNanos = targetMillis * 1_000_000;
+        int strength = 4;
+        long nanos = measure(strength);
+        while (strength < 31 && nanos * 2 <= targetNanos) {
+            strength++;
+            nanos = measure(strength);
+        }
+        if (strength < MIN_CALIBRATED_STRENGTH) {
+            log.warn("BCrypt cost {} hits the target of {} ms, using the minimum cost {}",
+                    strength, targetMillis, MIN_CALIBRATED_STRENGTH);
+            return MIN_CALIBRATED_STRENGTH;
+        }
+        log.info("BCrypt calibrated to cost {}, {} ms per hash (target {} ms)", strength, nanos / 1_000_000, targetMillis);
+        return strength;
+    }
+
+    // the fastest of a few hashes, after one to warm up
+    private static long measure(int strength) {
+        BCryptPasswordEncoder encoder = new BCryptPasswordEncoder(strength);
+        encoder.encode(CALIBRATION_PASSWORD);
+        long fastest = Long.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            long start = System.nanoTime();
+            encoder.encode(CALIBRATION_PASSWORD);
+            fastest = Math.min(fastest, System.nanoTime() - start);
+        }
+        return fastest;
+    }
+}
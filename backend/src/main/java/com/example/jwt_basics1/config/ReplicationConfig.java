@@ -0,0 +1,48 @@
+package com.example.jwt_basics1.config;
+
+import com.example.jwt_basics1.store.HttpTokenPeerClient;
+import com.example.jwt_basics1.store.LocalTokenReplication;
+import com.example.jwt_basics1.store.PullTokenReplication;
+import com.example.jwt_basics1.store.TokenReplication;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/*
+    * Replication of the token blacklist, the refresh token IPs and the user change markers between the nodes of a cluster
+    * Without jwt.replication.peers the node runs alone and nothing is replicated
+ */
+@Configuration
+public class ReplicationConfig {
+
+    // a PullTokenReplication is closed with the context, it stops polling the peers
+    @Bean
+    public TokenReplication tokenReplication(ObjectMapper objectMapper,
+                                             @Value("${jwt.replication.peers:}") String peers,
+                                             @Value("${jwt.replication.node-id:node}") String nodeId,
+                                             @Value("${jwt.replication.secret:}") String secret,
+                                             @Value("${jwt.replication.poll-interval-millis:500}") long pollIntervalMillis,
+                                             @Value("${jwt.replication.batch-size:1000}") int batchSize,
+                                             @Value("${jwt.replication.log-capacity:1000000}") int logCapacity) {
+        List<String> peerList = Arrays.stream(peers.split(","))
+                .map(String::trim)
+                .filter(peer -> !peer.isEmpty())
+                .toList();
+        if (peerList.isEmpty()) {
+            return new LocalTokenReplication();
+        }
+        if (secret.isEmpty()) {
+            throw new IllegalStateException("jwt.replication.secret is required when jwt.replication.peers is set");
+        }
+        // a new origin on every start, the sequence of this node starts over
+        String origin = nodeId + "-" + UUID.randomUUID();
+        HttpTokenPeerClient peerClient = new HttpTokenPeerClient(objectMapper, secret, Duration.ofSeconds(2));
+        return new PullTokenReplication(origin, peerList, peerClient, pollIntervalMillis, batchSize, logCapacity);
+    }
+}
@@ -3,7 +3,11 @@ package com.example.jwt_basics1.config;
 import com.example.jwt_basics1.service.CustomLogoutHandler;
 import com.example.jwt_basics1.service.CustomUserDetailsService;
 import com.example.jwt_basics1.service.TokenBlacklistService;
+import com.example.jwt_basics1.service.UserRevocationService;
+import io.micrometer.tracing.Tracer;
+import jakarta.servlet.DispatcherType;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.HttpMethod;
@@ -11,8 +15,6 @@ import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.configurers.AbstractHttpConfigurer;
 import org.springframework.security.config.http.SessionCreationPolicy;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
-import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.web.SecurityFilterChain;
 import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
 import org.springframework.web.cors.CorsConfiguration;
@@ -29,11 +31,19 @@ public class SecurityConfig {
     private final CustomUserDetailsService userDetailsService;
     private final TokenBlacklistService tokenBlacklistService;
     private final CustomLogoutHandler customLogoutHandler;
+    private final UserRevocationService userRevocationService;
+    private final AuthMetrics authMetrics;
+    private final Tracer tracer;
 
-    @Bean
-    public static PasswordEncoder passwordEncoder() {
-        return new BCryptPasswordEncoder();
-    }
+    // trust the roles claim of a verified token instead of loading the user on every request
+    @Value("${jwt.claims-trust.enabled:false}")
+    private boolean claimsTrustEnabled;
+
+    // the port of the actuator endpoints, -1 or server.port when they share the port of the application
+    @Value("${management.server.port:-1}")
+    private int managementPort;
+    @Value("${server.port:8080}")
+    private int serverPort;
 
     @Bean
     public SecurityFilterChain filterChain(HttpSecurity http) throws Exception {
@@ -54,7 +64,8 @@ public class SecurityConfig {
 
 
                 // adding a custom JWT authentication filter
-                .addFilterBefore(new JwtAuthenticationFilter(jwtUtil, userDetailsService, tokenBlacklistService),
+                .addFilterBefore(new JwtAuthenticationFilter(jwtUtil, userDetailsService, tokenBlacklistService,
+                                userRevocationService, authMetrics, tracer, claimsTrustEnabled),
                         UsernamePasswordAuthenticationFilter.class)
 
                 // The SessionCreationPolicy.STATELESS setting means that the application will not create or use HTTP sessions.
@@ -71,6 +82,9 @@ public class SecurityConfig {
 
                 // Configuring authorization for HTTP requests
                 .authorizeHttpRequests(auth -> auth
+                        // the async dispatch that completes a streamed response was already authorized
+                        .dispatcherTypeMatchers(DispatcherType.ASYNC).permitAll()
+
                         // Public endpoints
                         .requestMatchers("/login", "/register", "/home").permitAll()
                 
@@ -84,6 +98,14 @@ public class SecurityConfig {
 
                         .requestMatchers("/api/login/**").permitAll()
                         .requestMatchers("/api/refresh-token/**").permitAll() // Refresh token path
+                        .requestMatchers("/internal/replication/**").permitAll() // checked with the replication secret
+                        .requestMatchers("/.well-known/jwks.json").permitAll() // public keys only
+                        // probes, on either port
+                        .requestMatchers("/actuator/health/**").permitAll()
+                        // the metrics scraper, only on management.server.port: the metrics (auth outcomes, cache sizes,
+                        // user counts) are not served to anonymous callers of the application port
+                        .requestMatchers(request -> managementPort != serverPort
+                                && request.getLocalPort() == managementPort).permitAll()
 
                         .requestMatchers("/api/protected-message-admin").hasAnyRole("ADMIN")
                         .requestMatchers("/api/protected-message").hasAnyRole("USER", "ADMIN")
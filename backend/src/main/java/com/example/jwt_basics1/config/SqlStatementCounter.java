@@ -0,0 +1,24 @@
+package com.example.jwt_basics1.config;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+/*
+    * The SqlStatementCounter counts the SQL statements Hibernate prepares on the current thread
+    * TracingAspect reads it before and after a call, the difference is the db.statements tag of the span
+    * The statement is returned unchanged, counting is one increment of a thread local array
+ */
+public class SqlStatementCounter implements StatementInspector {
+
+    private static final ThreadLocal<long[]> COUNT = ThreadLocal.withInitial(() -> new long[1]);
+
+    @Override
+    public String inspect(String sql) {
+        COUNT.get()[0]++;
+        return sql;
+    }
+
+    // statements prepared by this thread since it started
+    public static long current() {
+        return COUNT.get()[0];
+    }
+}
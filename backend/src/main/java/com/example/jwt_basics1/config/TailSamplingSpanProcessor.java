@@ -0,0 +1,118 @@
+package com.example.jwt_basics1.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.ReadWriteSpan;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import io.opentelemetry.sdk.trace.SpanProcessor;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+    * The TailSamplingSpanProcessor exports the traces chosen by the head sampler, and the slow ones it did not choose
+    * A span of a sampled trace goes to the exporting processor as soon as it ends
+    * The spans of the other traces are only recorded (see TracingConfig) and held here until the local root span
+    * ends: if the root took longer than the slow threshold, or ended with an error, the whole trace is exported
+    * Otherwise it is dropped and the cost of the trace was the recording, no serialization and no I/O
+    * The held traces are bounded in number and size, a trace whose root never ends expires from the buffer
+ */
+public class TailSamplingSpanProcessor implements SpanProcessor {
+
+    private final SpanProcessor exporting;
+    private final long slowThresholdNanos;
+    private final int maxSpansPerTrace;
+
+    // traceId -> ended spans of a trace whose local root is still running
+    private final Cache<String, List<ReadableSpan>> pendingTraces;
+
+    private final LongAdder slowTraces = new LongAdder();
+    private final LongAdder droppedSpans = new LongAdder();
+
+    public TailSamplingSpanProcessor(SpanProcessor exporting, Duration slowThreshold,
+                                     long maxPendingTraces, int maxSpansPerTrace) {
+        this.exporting = exporting;
+        this.slowThresholdNanos = slowThreshold.toNanos();
+        this.maxSpansPerTrace = maxSpansPerTrace;
+        this.pendingTraces = Caffeine.newBuilder()
+                .maximumSize(maxPendingTraces)
+                .expireAfterWrite(Duration.ofMinutes(1))
+                .build();
+    }
+
+    @Override
+    public void onStart(Context parentContext, ReadWriteSpan span) {
+    }
+
+    @Override
+    public boolean isStartRequired() {
+        return false;
+    }
+
+    @Override
+    public void onEnd(ReadableSpan span) {
+        if (span.getSpanContext().isSampled()) {
+            exporting.onEnd(span);
+            return;
+        }
+        String traceId = span.getSpanContext().getTraceId();
+        SpanContext parent = span.getParentSpanContext();
+        if (parent.isValid() && !parent.isRemote()) {
+            // a child span, held until its local root ends
+            List<ReadableSpan> spans = pendingTraces.get(traceId, id -> new ArrayList<>());
+            synchronized (spans) {
+                if (spans.size() < maxSpansPerTrace) {
+                    spans.add(span);
+                } else {
+                    droppedSpans.increment();
+                }
+            }
+            return;
+        }
+
+        // the local root ended, the trace is complete on this node
+        List<ReadableSpan> spans = pendingTraces.asMap().remove(traceId);
+        boolean failed = span.toSpanData().getStatus().getStatusCode() == StatusCode.ERROR;
+        if (span.getLatencyNanos() < slowThresholdNanos && !failed) {
+            return;
+        }
+        slowTraces.increment();
+        if (spans != null) {
+            synchronized (spans) {
+                spans.forEach(exporting::onEnd);
+            }
+        }
+        exporting.onEnd(span);
+    }
+
+    @Override
+    public boolean isEndRequired() {
+        return true;
+    }
+
+    @Override
+    public CompletableResultCode forceFlush() {
+        return exporting.forceFlush();
+    }
+
+    @Override
+    public CompletableResultCode shutdown() {
+        pendingTraces.invalidateAll();
+        return exporting.shutdown();
+    }
+
+    // traces exported only because they were slow or failed
+    public long getSlowTraceCount() {
+        return slowTraces.sum();
+    }
+
+    public long getDroppedSpanCount() {
+        return droppedSpans.sum();
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.jwt_basics1.config;
+
+import io.micrometer.tracing.Span;
+import io.micrometer.tracing.Tracer;
+import lombok.RequiredArgsConstructor;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.annotation.Pointcut;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.repository.Repository;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ClassUtils;
+
+/*
+    * The TracingAspect opens a span around every public call of the controllers, the services, JwtUtil and the repositories
+    * The span is named Type.method and tagged with db.statements, the SQL statements prepared during the call
+    * It runs outside of the transaction advice, so the flush and the commit of a @Transactional method are in its span
+    * When the trace is not recorded (head sampling without tail sampling) the span is a no-op
+ */
+@Aspect
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+@RequiredArgsConstructor
+public class TracingAspect {
+
+    private final Tracer tracer;
+
+    // proxy class -> the name of the spans of its methods, the repository interface or the class behind the proxy
+    private final ClassValue<String> typeNames = new ClassValue<>() {
+        @Override
+        protected String computeValue(Class<?> type) {
+            for (Class<?> candidate : ClassUtils.getAllInterfacesForClassAsSet(type)) {
+                if (Repository.class.isAssignableFrom(candidate) && candidate != Repository.class
+                        && candidate.getPackageName().startsWith("com.example.jwt_basics1")) {
+                    return candidate.getSimpleName();
+                }
+            }
+            return ClassUtils.getUserClass(type).getSimpleName();
+        }
+    };
+
+    @Pointcut("execution(public * com.example.jwt_basics1.controller..*(..))")
+    void controllers() {
+    }
+
+    @Pointcut("execution(public * com.example.jwt_basics1.service..*(..))")
+    void services() {
+    }
+
+    @Pointcut("execution(public * com.example.jwt_basics1.config.JwtUtil.*(..))")
+    void jwtUtil() {
+    }
+
+    @Pointcut("execution(* org.springframework.data.repository.Repository+.*(..))")
+    void repositories() {
+    }
+
+    @Around("controllers() || services() || jwtUtil() || repositories()")
+    public Object trace(ProceedingJoinPoint joinPoint) throws Throwable {
+        Span span = tracer.nextSpan();
+        if (span.isNoop()) {
+            return joinPoint.proceed();
+        }
+        span.name(typeNames.get(joinPoint.getThis().getClass()) + "." + joinPoint.getSignature().getName()).start();
+        long statements = SqlStatementCounter.current();
+        try (Tracer.SpanInScope scope = tracer.withSpan(span)) {
+            return joinPoint.proceed();
+        } catch (Throwable e) {
+            span.error(e);
+            throw e;
+        } finally {
+            span.tag("db.statements", SqlStatementCounter.current() - statements);
+            span.end();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.jwt_basics1.config;
+
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.exporter.logging.otlp.OtlpJsonLoggingSpanExporter;
+import io.opentelemetry.sdk.trace.data.LinkData;
+import io.opentelemetry.sdk.trace.export.BatchSpanProcessor;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import io.opentelemetry.sdk.trace.samplers.Sampler;
+import io.opentelemetry.sdk.trace.samplers.SamplingDecision;
+import io.opentelemetry.sdk.trace.samplers.SamplingResult;
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.autoconfigure.tracing.ConditionalOnEnabledTracing;
+import org.springframework.boot.actuate.autoconfigure.tracing.SpanProcessors;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+/*
+    * The TracingConfig class sets up the OpenTelemetry SDK behind Micrometer Tracing (the spans of TracingAspect,
+    * JwtAuthenticationFilter and the HTTP server observation)
+    *
+    * Head sampling: a trace is sampled at its root with management.tracing.sampling.probability, by its trace id
+    * Tail sampling (tracing.tail.enabled, off by default): the other traces are recorded but not sampled, TailSamplingSpanProcessor
+    * exports one of them only if its root span took longer than tracing.tail.slow-threshold or failed
+    * With tail sampling off, a trace that is not sampled is not recorded at all, the cheapest setting
+    *
+    * The spans are written as OTLP JSON, one export request per line, to tracing.export.file
+    * (readable by the otlpjsonfile receiver of the OpenTelemetry collector), or to the log when the file is empty
+    * The file rolls over to <file>.1 at tracing.export.max-file-size, see FileSpanExporter
+ */
+@Configuration
+@ConditionalOnEnabledTracing
+public class TracingConfig {
+
+    // counts the statements Hibernate prepares, for the db.statements tag of the spans
+    @Bean
+    public HibernatePropertiesCustomizer sqlStatementCounter() {
+        return properties -> properties.put(AvailableSettings.STATEMENT_INSPECTOR, new SqlStatementCounter());
+    }
+
+    @Bean
+    public Sampler tailAwareSampler(@Value("${management.tracing.sampling.probability:0.1}") double probability,
+                               @Value("${tracing.tail.enabled:false}") boolean tailEnabled) {
+        Sampler head = Sampler.traceIdRatioBased(probability);
+        if (!tailEnabled) {
+            return Sampler.parentBased(head);
+        }
+        // what the head sampler drops is still recorded, for the tail sampling
+        Sampler recordOnly = new RecordOnlySampler(Sampler.alwaysOff());
+        return Sampler.parentBasedBuilder(new RecordOnlySampler(head))
+                .setLocalParentNotSampled(recordOnly)
+                .setRemoteParentNotSampled(recordOnly)
+                .build();
+    }
+
+    // exports the spans handed over by the tail sampling, in batches on its own thread
+    @Bean
+    public BatchSpanProcessor traceFileSpanProcessor(@Value("${tracing.export.file:./data/traces/spans.jsonl}") String file,
+                                                     @Value("${tracing.export.max-file-size:100MB}") DataSize maxFileSize)
+            throws IOException {
+        SpanExporter exporter = file.isBlank()
+                ? OtlpJsonLoggingSpanExporter.create()
+                : new FileSpanExporter(Path.of(file), maxFileSize.toBytes());
+        return BatchSpanProcessor.builder(exporter)
+                // the slow traces the tail sampling keeps were recorded without the sampled flag
+                .setExportUnsampledSpans(true)
+                .build();
+    }
+
+    // the only span processor of the tracer provider, every span goes through the tail sampling
+    @Bean
+    public SpanProcessors tailSamplingSpanProcessors(BatchSpanProcessor traceFileSpanProcessor,
+                                         @Value("${tracing.tail.slow-threshold:PT0.5S}") Duration slowThreshold,
+                                         @Value("${tracing.tail.max-pending-traces:10000}") long maxPendingTraces,
+                                         @Value("${tracing.tail.max-spans-per-trace:256}") int maxSpansPerTrace) {
+        return SpanProcessors.of(new TailSamplingSpanProcessor(traceFileSpanProcessor, slowThreshold,
+                maxPendingTraces, maxSpansPerTrace));
+    }
+
+    // turns a DROP of the delegate into RECORD_ONLY, the span is recorded but not exported by the head decision
+    static final class RecordOnlySampler implements Sampler {
+
+        private final Sampler delegate;
+
+        RecordOnlySampler(Sampler delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public SamplingResult shouldSample(Context parentContext, String traceId, String name, SpanKind spanKind,
+                                           Attributes attributes, List<LinkData> parentLinks) {
+            SamplingResult result = delegate.shouldSample(parentContext, traceId, name, spanKind, attributes, parentLinks);
+            return result.getDecision() == SamplingDecision.DROP ? SamplingResult.recordOnly() : result;
+        }
+
+        @Override
+        public String getDescription() {
+            return "RecordOnly{" + delegate.getDescription() + "}";
+        }
+    }
+}
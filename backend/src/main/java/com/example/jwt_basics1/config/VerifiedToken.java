@@ -0,0 +1,23 @@
+package com.example.jwt_basics1.config;
+
+import lombok.Value;
+
+import java.util.Date;
+import java.util.List;
+
+/*
+    * The VerifiedToken class holds the claims of a JWT whose signature has already been verified
+    * It is produced once per request by JwtUtil.parseToken and passed along instead of the raw token string
+ */
+@Value
+public class VerifiedToken {
+    String subject;
+    String jwtID;
+    List<String> roles; // empty for refresh tokens, they do not carry a roles claim
+    Date expiration;
+    Date issuedAt;
+
+    public boolean isExpired() {
+        return expiration.getTime() < System.currentTimeMillis();
+    }
+}
@@ -5,9 +5,11 @@ import com.example.jwt_basics1.dto.AuthenticationRequest;
 import com.example.jwt_basics1.dto.AuthenticationResponse;
 import com.example.jwt_basics1.dto.RefreshTokenRequest;
 import com.example.jwt_basics1.service.AuthenticationService;
+import com.example.jwt_basics1.service.LoginThrottledException;
 import com.example.jwt_basics1.service.RefreshTokenService;
 import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.authentication.AuthenticationServiceException;
@@ -34,6 +36,11 @@ public class AuthenticationController {
             authenticationRequest.setIp(clientIP);
             AuthenticationResponse authResponse = authenticationService.authenticate(authenticationRequest);
             return ResponseEntity.ok(authResponse);
+        } catch (LoginThrottledException e) {
+            // the password hashing pool is full, shed the login instead of queueing it
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                    .body(e.getMessage());
         } catch (AuthenticationServiceException e) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(e.getMessage());
         }
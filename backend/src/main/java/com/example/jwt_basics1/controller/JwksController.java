@@ -0,0 +1,112 @@
+package com.example.jwt_basics1.controller;
+
+import com.example.jwt_basics1.config.JwtKeyRing;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.DigestUtils;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.math.BigInteger;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.EdECPublicKey;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+    * The JwksController publishes the public keys of the key ring as a JSON Web Key Set (RFC 7517)
+    * so other services and proxies verify the ES256 / EdDSA tokens without calling this application
+    * The HMAC keys are secrets and never published
+    * A new key is in the set publish-ahead before it signs, longer than the max-age, so a cached set is never missing it
+ */
+@RestController
+@RequiredArgsConstructor
+public class JwksController {
+
+    private static final Base64.Encoder BASE64URL = Base64.getUrlEncoder().withoutPadding();
+
+    private final JwtKeyRing keyRing;
+    private final ObjectMapper objectMapper;
+
+    @Value("${jwt.jwks.max-age-seconds:300}")
+    private long maxAgeSeconds;
+
+    // the serialized set, built again only when the keys of the ring change
+    private volatile CachedJwks cached;
+
+    @GetMapping(value = "/.well-known/jwks.json", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<byte[]> jwks() throws JsonProcessingException {
+        CachedJwks jwks = currentJwks();
+        // a request with the same If-None-Match gets a 304 without the body
+        return ResponseEntity.ok()
+                .cacheControl(CacheControl.maxAge(Duration.ofSeconds(maxAgeSeconds))
+                        .cachePublic()
+                        .staleWhileRevalidate(Duration.ofSeconds(maxAgeSeconds)))
+                .eTag(jwks.etag)
+                .body(jwks.body);
+    }
+
+    private CachedJwks currentJwks() throws JsonProcessingException {
+        Map<String, JwtKeyRing.RingKey> keys = keyRing.getVerificationKeys();
+        CachedJwks current = cached;
+        if (current != null && current.keys == keys) {
+            return current;
+        }
+        List<Map<String, String>> jwks = new ArrayList<>();
+        for (JwtKeyRing.RingKey key : keys.values()) {
+            if (key.isAsymmetric()) {
+                jwks.add(toJwk(key));
+            }
+        }
+        byte[] body = objectMapper.writeValueAsBytes(Map.of("keys", jwks));
+        current = new CachedJwks(keys, body, DigestUtils.md5DigestAsHex(body));
+        cached = current;
+        return current;
+    }
+
+    private static Map<String, String> toJwk(JwtKeyRing.RingKey key) {
+        Map<String, String> jwk = new LinkedHashMap<>();
+        if (key.getVerifyKey() instanceof ECPublicKey ec) {
+            jwk.put("kty", "EC");
+            jwk.put("crv", "P-256");
+            jwk.put("x", BASE64URL.encodeToString(unsigned(ec.getW().getAffineX(), 32)));
+            jwk.put("y", BASE64URL.encodeToString(unsigned(ec.getW().getAffineY(), 32)));
+        } else if (key.getVerifyKey() instanceof EdECPublicKey ed) {
+            // the raw 32 bytes of an Ed25519 public key are the end of its X.509 encoding
+            byte[] encoded = ed.getEncoded();
+            jwk.put("kty", "OKP");
+            jwk.put("crv", "Ed25519");
+            jwk.put("x", BASE64URL.encodeToString(Arrays.copyOfRange(encoded, encoded.length - 32, encoded.length)));
+        }
+        jwk.put("kid", key.getKid());
+        jwk.put("use", "sig");
+        jwk.put("alg", key.getAlgorithm().name());
+        return jwk;
+    }
+
+    // a coordinate as exactly length bytes, without the sign byte of BigInteger and with the leading zeros
+    private static byte[] unsigned(BigInteger value, int length) {
+        byte[] bytes = value.toByteArray();
+        byte[] fixed = new byte[length];
+        int copy = Math.min(bytes.length, length);
+        System.arraycopy(bytes, bytes.length - copy, fixed, length - copy, copy);
+        return fixed;
+    }
+
+    @RequiredArgsConstructor
+    private static final class CachedJwks {
+        private final Map<String, JwtKeyRing.RingKey> keys;
+        private final byte[] body;
+        private final String etag;
+    }
+}
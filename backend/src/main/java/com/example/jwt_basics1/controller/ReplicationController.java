@@ -0,0 +1,35 @@
+package com.example.jwt_basics1.controller;
+
+import com.example.jwt_basics1.dto.TokenEventBatch;
+import com.example.jwt_basics1.store.HttpTokenPeerClient;
+import com.example.jwt_basics1.store.TokenReplication;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+// Serves the token events of this node to the other nodes of the cluster, see ReplicationConfig
+@RestController
+@RequiredArgsConstructor
+@RequestMapping("/internal/replication")
+public class ReplicationController {
+
+    private final TokenReplication tokenReplication;
+
+    @Value("${jwt.replication.secret:}")
+    private String secret;
+
+    @GetMapping("/events")
+    public ResponseEntity<TokenEventBatch> events(@RequestParam(defaultValue = "0") long since,
+                                                  @RequestHeader(value = HttpTokenPeerClient.SECRET_HEADER, required = false) String peerSecret) {
+        if (secret.isEmpty() || peerSecret == null || !MessageDigest.isEqual(
+                secret.getBytes(StandardCharsets.UTF_8), peerSecret.getBytes(StandardCharsets.UTF_8))) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        return ResponseEntity.ok(tokenReplication.eventsSince(since));
+    }
+}
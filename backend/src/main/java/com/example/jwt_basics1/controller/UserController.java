@@ -1,10 +1,29 @@
 package com.example.jwt_basics1.controller;
 
+import com.example.jwt_basics1.dto.BulkUserResult;
 import com.example.jwt_basics1.dto.UserDto;
+import com.example.jwt_basics1.dto.UserPageDto;
+import com.example.jwt_basics1.service.UserBulkService;
 import com.example.jwt_basics1.service.UserService;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 
 
@@ -13,7 +32,11 @@ import java.util.List;
 @RequestMapping("/api")
 public class UserController {
 
+    private static final int EXPORT_FLUSH_EVERY = 500;
+
     private final UserService userService;
+    private final UserBulkService userBulkService;
+    private final ObjectMapper objectMapper;
 
     @GetMapping("/protected-message")
     public String home() {
@@ -26,8 +49,110 @@ public class UserController {
     }
 
     @GetMapping("/users")
-    public List<UserDto> getAllUsers() { // החזרת רשימת כל המשתמשים
-        return userService.getAllUsers();
+    public UserPageDto getUsers(@RequestParam(required = false) String cursor,
+                                @RequestParam(required = false) Integer size) { // החזרת עמוד של משתמשים, לפי cursor
+        return userService.getUsersPage(cursor, size);
+    }
+
+    // Export of all the users as NDJSON, one user per line, written while the rows are read from the database
+    // a slow client blocks the writes, and so the reading of the rows
+    @GetMapping(value = "/users/export", produces = "application/x-ndjson")
+    public ResponseEntity<StreamingResponseBody> exportUsers() { // ייצוא כל המשתמשים בזרימה
+        StreamingResponseBody body = out -> {
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+                // one user per line, without the space Jackson puts between root values
+                generator.setRootValueSeparator(null);
+                int[] count = {0};
+                userService.forEachUser(userDto -> {
+                    try {
+                        generator.writeObject(userDto);
+                        generator.writeRaw('\n');
+                        // the first user right away, then in chunks
+                        if (++count[0] % EXPORT_FLUSH_EVERY == 1) {
+                            generator.flush();
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/x-ndjson"))
+                .body(body);
+    }
+
+    // Bulk import of users, an NDJSON stream or a JSON array of users, written in chunks of users.bulk.chunk-size
+    // the result of every row is returned as NDJSON. By default the results are spilled to a temporary file and sent
+    // once the whole body was read: most HTTP/1.1 clients (curl --data-binary included) send the whole body before
+    // reading the response, both sides would block on full socket buffers if the results were sent meanwhile.
+    // With interleaved=true the results of a chunk are sent as soon as it is written, the client must then read
+    // the response while it is still sending the body (e.g. HTTP/2, or a client that reads and writes concurrently)
+    @PostMapping(value = "/users/bulk", consumes = {"application/x-ndjson", MediaType.APPLICATION_JSON_VALUE},
+            produces = "application/x-ndjson")
+    public ResponseEntity<StreamingResponseBody> importUsers(HttpServletRequest request,
+                                                             @RequestParam(defaultValue = "false") boolean interleaved) { // יצירה ועדכון של משתמשים רבים
+        StreamingResponseBody body = out -> {
+            if (interleaved) {
+                importRows(request, out);
+                return;
+            }
+            Path results = Files.createTempFile("users-bulk-", ".ndjson");
+            try {
+                try (OutputStream spill = new BufferedOutputStream(Files.newOutputStream(results))) {
+                    importRows(request, spill);
+                }
+                Files.copy(results, out);
+            } finally {
+                Files.deleteIfExists(results);
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/x-ndjson"))
+                .body(body);
+    }
+
+    // Read the rows of the request body and write the result of every row to out, chunk after chunk
+    private void importRows(HttpServletRequest request, OutputStream out) throws IOException {
+        try (InputStream in = request.getInputStream();
+             MappingIterator<UserDto> rows = objectMapper.readerFor(UserDto.class).readValues(in);
+             JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+            // one result per line, without the space Jackson puts between root values
+            generator.setRootValueSeparator(null);
+            int chunkSize = userBulkService.getChunkSize();
+            List<UserDto> chunk = new ArrayList<>(chunkSize);
+            int firstIndex = 0;
+            while (true) {
+                UserDto row;
+                try {
+                    if (!rows.hasNextValue()) {
+                        break;
+                    }
+                    row = rows.nextValue();
+                } catch (JsonProcessingException e) {
+                    // the rest of the body cannot be read, the rows before it are still written
+                    writeResults(generator, userBulkService.importChunk(firstIndex, chunk));
+                    writeResults(generator, List.of(BulkUserResult.failed(
+                            firstIndex + chunk.size(), null, "Malformed row: " + e.getOriginalMessage())));
+                    return;
+                }
+                chunk.add(row);
+                if (chunk.size() == chunkSize) {
+                    writeResults(generator, userBulkService.importChunk(firstIndex, chunk));
+                    firstIndex += chunk.size();
+                    chunk = new ArrayList<>(chunkSize);
+                }
+            }
+            writeResults(generator, userBulkService.importChunk(firstIndex, chunk));
+        }
+    }
+
+    private static void writeResults(JsonGenerator generator, List<BulkUserResult> results) throws IOException {
+        for (BulkUserResult result : results) {
+            generator.writeObject(result);
+            generator.writeRaw('\n');
+        }
+        generator.flush();
     }
 
     @GetMapping("/users/{id}")
@@ -0,0 +1,24 @@
+package com.example.jwt_basics1.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// The outcome of one row of a bulk import, index is the position of the row in the request
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BulkUserResult {
+
+    public enum Status { CREATED, UPDATED, FAILED }
+
+    private int index;
+    private Long id;
+    private String username;
+    private Status status;
+    private String error;
+
+    public static BulkUserResult failed(int index, String username, String error) {
+        return new BulkUserResult(index, null, username, Status.FAILED, error);
+    }
+}
@@ -0,0 +1,25 @@
+package com.example.jwt_basics1.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/*
+    * The TokenEvent class is a change of a token store, replicated to the other nodes of the cluster
+    * REVOKE carries a blacklisted jwtID, REFRESH_IP carries the jwtID and client IP of a login
+    * USER_CHANGED carries the username of a changed user in jwtID, tokens issued before the change are not trusted
+    * ROLES_CHANGED has no jwtID, no token issued before a role was renamed or deleted is trusted
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TokenEvent {
+
+    public enum Type { REVOKE, REFRESH_IP, USER_CHANGED, ROLES_CHANGED }
+
+    private long sequence; // increasing per origin node
+    private Type type;
+    private String jwtID;
+    private String value;
+    private long expiresAt;
+}
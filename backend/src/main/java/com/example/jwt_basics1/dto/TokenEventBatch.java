@@ -0,0 +1,20 @@
+package com.example.jwt_basics1.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/*
+    * The TokenEventBatch class is the answer of a node to a replication pull
+    * It holds the events that node originated after the requested sequence, oldest first
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TokenEventBatch {
+    private String origin; // id of the node, changes when the node restarts
+    private List<TokenEvent> events;
+    private boolean more; // the batch was cut, pull again right away
+}
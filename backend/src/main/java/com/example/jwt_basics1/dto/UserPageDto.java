@@ -0,0 +1,19 @@
+package com.example.jwt_basics1.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/*
+    * One page of users, pass nextCursor back as the cursor parameter to get the next page
+    * nextCursor is null on the last page
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UserPageDto {
+    private List<UserDto> users;
+    private String nextCursor;
+}
@@ -13,17 +13,21 @@ import java.util.List;
 @Entity
 public class User {
 
+    // ids from a pooled sequence (a table on MySQL), reserved 50 at a time, so inserts can be sent in JDBC batches
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "user_seq")
+    @SequenceGenerator(name = "user_seq", sequenceName = "user_seq", allocationSize = 50)
     private Long id;
 
     @Column(nullable = false, unique = true, length = 80)
     private String username;
 
-    @Column(nullable = false, length = 80)
+    // the {id} prefix of the encoder and its hash, {pbkdf2@SpringSecurity_v5_8} and 96 hex chars is the longest today
+    @Column(nullable = false, length = 255)
     private String password;
 
-    @ManyToMany(fetch = FetchType.EAGER)
+    // lazy, the read paths that need the roles fetch them in the same query with an entity graph
+    @ManyToMany(fetch = FetchType.LAZY)
     @JoinTable(
             name = "users_roles",
             joinColumns = @JoinColumn(name = "USER_ID"),
@@ -3,10 +3,18 @@ package com.example.jwt_basics1.mapper;
 import com.example.jwt_basics1.dto.UserDto;
 import com.example.jwt_basics1.entity.Role;
 import com.example.jwt_basics1.entity.User;
+import com.example.jwt_basics1.repository.UserRoleRow;
 import com.example.jwt_basics1.service.RoleService;
 import lombok.AllArgsConstructor;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @Component
@@ -22,10 +30,7 @@ public class UserMapper {
                 .id(dto.getId())
                 .username(dto.getUsername())
                 .password(dto.getPassword())
-                .roles(dto.getRoles().stream()
-                        .map(roleName -> roleService.findByRoleName(roleName)
-                                .orElseThrow(() -> new RuntimeException("Role not found: " + roleName)))
-                        .collect(Collectors.toList()))
+                .roles(resolveRoles(dto.getRoles()))
                 .build();
     }
 
@@ -49,9 +54,51 @@ public class UserMapper {
         entity.setId(dto.getId());
         entity.setUsername(dto.getUsername());
         entity.setPassword(dto.getPassword());
-        entity.setRoles(dto.getRoles().stream()
-                .map(roleName -> roleService.findByRoleName(roleName)
-                        .orElseThrow(() -> new RuntimeException("Role not found: " + roleName)))
-                .collect(Collectors.toList()));
+        entity.setRoles(resolveRoles(dto.getRoles()));
+    }
+
+    // all the role names of a user are resolved at once, from the roles kept in memory by RoleService
+    private List<Role> resolveRoles(Set<String> roleNames) {
+        Map<String, Role> roles = roleService.findByRoleNames(roleNames);
+        return roleNames.stream()
+                .map(roleName -> {
+                    Role role = roles.get(roleName);
+                    if (role == null) {
+                        throw new RuntimeException("Role not found: " + roleName);
+                    }
+                    return role;
+                })
+                .collect(Collectors.toList());
+    }
+
+    // Group the rows of the user / role join (ordered by user id) into one dto per user, the password is not read
+    public List<UserDto> toDtos(List<UserRoleRow> rows) {
+        List<UserDto> users = new ArrayList<>();
+        groupRows(rows.iterator(), users::add);
+        return users;
+    }
+
+    // Same grouping for rows that are still being read, each user is handed over once all its rows were seen
+    public void groupRows(Iterator<UserRoleRow> rows, Consumer<UserDto> consumer) {
+        UserDto current = null;
+        while (rows.hasNext()) {
+            UserRoleRow row = rows.next();
+            if (current == null || !current.getId().equals(row.getId())) {
+                if (current != null) {
+                    consumer.accept(current);
+                }
+                current = UserDto.builder()
+                        .id(row.getId())
+                        .username(row.getUsername())
+                        .roles(new HashSet<>())
+                        .build();
+            }
+            if (row.getRoleName() != null) {
+                current.getRoles().add(row.getRoleName());
+            }
+        }
+        if (current != null) {
+            consumer.accept(current);
+        }
     }
 }
@@ -4,6 +4,7 @@ import com.example.jwt_basics1.entity.Role;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -13,4 +14,6 @@ public interface RoleRepository extends JpaRepository<Role, Long> {
     List<Role> findRolesByUserId(Long id);
 
     Optional<Role> findByRoleName(String role);
+
+    List<Role> findByRoleNameIn(Collection<String> roleNames);
 }
@@ -1,18 +1,63 @@
 package com.example.jwt_basics1.repository;
 
 import com.example.jwt_basics1.entity.User;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 public interface UserRepository extends JpaRepository<User, Long> {
 
+    // the lookups that return a user with its roles fetch them in the same query
+    @EntityGraph(attributePaths = "roles")
     Optional<User> findUserByUsername(String username);
 
+    @EntityGraph(attributePaths = "roles")
     User findByUsername(String username);
 
+    @EntityGraph(attributePaths = "roles")
     List<User> findAll();
 
+    @EntityGraph(attributePaths = "roles")
     Optional<User> getUsersById(Long id);
+
+    boolean existsByUsernameAndIdNot(String username, Long id);
+
+    // the users of a batch of password upgrades, without their roles
+    List<User> findAllByUsernameIn(Collection<String> usernames);
+
+    // the owners of the usernames of a bulk import chunk, in one query
+    @Query("SELECT u.id AS id, u.username AS username FROM User u WHERE u.username IN :usernames")
+    List<UsernameRow> findUsernamesIn(Collection<String> usernames);
+
+    // Keyset page of users after the given id, with their role names, in one joined query and without entities
+    // the limit applies to the users in the derived table, not to the joined rows
+    @Query(value = """
+            SELECT u.id AS id, u.username AS username, r.role_name AS roleName
+            FROM (SELECT id, username FROM user WHERE id > :afterId ORDER BY id LIMIT :limit) u
+            LEFT JOIN users_roles ur ON ur.user_id = u.id
+            LEFT JOIN role r ON r.id = ur.role_id
+            ORDER BY u.id""", nativeQuery = true)
+    List<UserRoleRow> findUserRolesAfter(long afterId, int limit);
+
+    // Every user with its role names, ordered by id, read forward-only in chunks of the fetch size
+    // must be consumed and closed inside a transaction
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query(value = """
+            SELECT u.id AS id, u.username AS username, r.role_name AS roleName
+            FROM user u
+            LEFT JOIN users_roles ur ON ur.user_id = u.id
+            LEFT JOIN role r ON r.id = ur.role_id
+            ORDER BY u.id""", nativeQuery = true)
+    Stream<UserRoleRow> streamAllUserRoles();
 }
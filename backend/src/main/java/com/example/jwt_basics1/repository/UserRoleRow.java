@@ -0,0 +1,12 @@
+package com.example.jwt_basics1.repository;
+
+/*
+    * Projection of one row of the user / role join, a user with several roles comes back as several rows
+ */
+public interface UserRoleRow {
+    Long getId();
+
+    String getUsername();
+
+    String getRoleName(); // null for a user without roles
+}
@@ -0,0 +1,7 @@
+package com.example.jwt_basics1.repository;
+
+// The id of a user and its username, without the entity
+public interface UsernameRow {
+    Long getId();
+    String getUsername();
+}
@@ -1,5 +1,7 @@
 package com.example.jwt_basics1.service;
 
+import com.example.jwt_basics1.config.AuthMetrics;
+import com.example.jwt_basics1.config.AuthMetrics.LoginOutcome;
 import com.example.jwt_basics1.config.JwtUtil;
 import com.example.jwt_basics1.dto.AuthenticationRequest;
 import com.example.jwt_basics1.dto.AuthenticationResponse;
@@ -7,7 +9,6 @@ import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import org.springframework.security.authentication.AuthenticationServiceException;
 import org.springframework.security.core.userdetails.UserDetails;
-import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 
 import java.util.UUID;
@@ -18,30 +19,53 @@ public class AuthenticationService {
 
     private final CustomUserDetailsService customUserDetailsService;
     private final JwtUtil jwtUtil;
-    private final PasswordEncoder passwordEncoder;
+    private final PasswordHashingService passwordHashingService;
     private final RefreshTokenService refreshTokenService;
+    private final PasswordUpgradeService passwordUpgradeService;
+    private final AuthMetrics authMetrics;
 
     public AuthenticationResponse authenticate(AuthenticationRequest authenticationRequest) {
-        // load the user details from the database using the username by calling the loadUserByUsername() method
-        UserDetails userDetails = customUserDetailsService.loadUserByUsername(authenticationRequest.getUsername());
+        long start = System.nanoTime();
+        LoginOutcome outcome = LoginOutcome.ERROR;
+        try {
+            // load the user details from the database using the username by calling the loadUserByUsername() method
+            UserDetails userDetails = customUserDetailsService.loadUserByUsername(authenticationRequest.getUsername());
 
-        // check if the password matches the password in the database
-        if (!passwordEncoder.matches(authenticationRequest.getPassword(), userDetails.getPassword())) {
-            throw new AuthenticationServiceException("Invalid credentials");
-        }
+            if (userDetails == null) {
+                outcome = LoginOutcome.UNKNOWN_USER;
+                throw new AuthenticationServiceException("Invalid credentials");
+            }
+
+            // check if the password matches the password in the database
+            // the hashing runs on its own bounded pool, a full pool throws LoginThrottledException
+            boolean matches;
+            try {
+                matches = passwordHashingService.matches(authenticationRequest.getPassword(), userDetails.getPassword());
+            } catch (LoginThrottledException e) {
+                outcome = LoginOutcome.THROTTLED;
+                throw e;
+            }
+            if (!matches) {
+                outcome = LoginOutcome.BAD_PASSWORD;
+                throw new AuthenticationServiceException("Invalid credentials");
+            }
 
-        // generate a unique ID for the two tokens
-        String jwtID = UUID.randomUUID().toString();
+            // a hash of an older algorithm or cost is replaced in the background, the login does not wait for it
+            passwordUpgradeService.upgradeIfNeeded(userDetails.getUsername(), authenticationRequest.getPassword(),
+                    userDetails.getPassword());
 
-        String clientIP = authenticationRequest.getIp();
-        refreshTokenService.storeRefreshTokenIp(jwtID, clientIP);
+            // generate a unique ID for the two tokens
+            String jwtID = UUID.randomUUID().toString();
 
-        // generate the JWT access token and refresh token
-        String accessToken = jwtUtil.generateToken(authenticationRequest, userDetails, jwtID);
-        String refreshToken = jwtUtil.generateRefreshToken(authenticationRequest, userDetails, jwtID);
+            String clientIP = authenticationRequest.getIp();
+            refreshTokenService.storeRefreshTokenIp(jwtID, clientIP);
 
-        // return the AuthenticationResponse object
-        return new AuthenticationResponse(accessToken, refreshToken);
+            // generate the JWT access token and refresh token together, and return them
+            AuthenticationResponse tokens = jwtUtil.issueTokenPair(userDetails, jwtID);
+            outcome = LoginOutcome.SUCCESS;
+            return tokens;
+        } finally {
+            authMetrics.recordLogin(outcome, System.nanoTime() - start);
+        }
     }
 }
-
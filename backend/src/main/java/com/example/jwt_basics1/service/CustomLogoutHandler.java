@@ -1,6 +1,7 @@
 package com.example.jwt_basics1.service;
 
 import com.example.jwt_basics1.config.JwtUtil;
+import com.example.jwt_basics1.config.VerifiedToken;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
@@ -11,7 +12,6 @@ import org.springframework.security.web.authentication.logout.LogoutSuccessHandl
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
-import java.util.Date;
 
 import static com.example.jwt_basics1.config.JwtProperties.*;
 
@@ -31,10 +31,10 @@ public class CustomLogoutHandler implements LogoutSuccessHandler {
             if (authHeader != null && authHeader.startsWith(TOKEN_PREFIX)) {
                 String token = authHeader.substring(TOKEN_PREFIX.length());
 
-                String jwtID = jwtUtil.extractJWTID(token);
-                Date expiration = jwtUtil.extractExpiration(token);
+                // verify and parse the token once, then blacklist its id until it expires
+                VerifiedToken verifiedToken = jwtUtil.parseToken(token);
 
-                tokenBlacklistService.blacklistToken(jwtID, expiration);
+                tokenBlacklistService.blacklistToken(verifiedToken.getJwtID(), verifiedToken.getExpiration());
 
                 response.setStatus(HttpServletResponse.SC_OK);
                 response.getWriter().write("Logout successful. (Token has been blacklisted.)");
@@ -3,7 +3,11 @@ package com.example.jwt_basics1.service;
 import com.example.jwt_basics1.entity.Role;
 import com.example.jwt_basics1.entity.User;
 import com.example.jwt_basics1.repository.UserRepository;
-import lombok.RequiredArgsConstructor;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.authentication.DisabledException;
 import org.springframework.security.authentication.LockedException;
 import org.springframework.security.core.GrantedAuthority;
@@ -12,28 +16,48 @@ import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.time.Duration;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 
+@Slf4j
 @Service
-@RequiredArgsConstructor
 public class CustomUserDetailsService implements UserDetailsService {
 
     private final UserRepository userRepository;
 
+    // username -> user details, bounded in size, expired after write and refreshed in the background
+    // while the refresh is running the old value is still served
+    private final LoadingCache<String, UserDetails> userDetailsCache;
+
+    // explicit evictions from UserService, the size based evictions are counted by the cache itself
+    private final AtomicLong invalidationCount = new AtomicLong();
+
+    public CustomUserDetailsService(UserRepository userRepository,
+                                    @Value("${security.user-cache.maximum-size:10000}") long maximumSize,
+                                    @Value("${security.user-cache.expire-after-write:PT5M}") Duration expireAfterWrite,
+                                    @Value("${security.user-cache.refresh-after-write:PT1M}") Duration refreshAfterWrite) {
+        this.userRepository = userRepository;
+        this.userDetailsCache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWrite)
+                .refreshAfterWrite(refreshAfterWrite)
+                .recordStats()
+                .build(this::loadFromDatabase);
+    }
+
     @Override
     public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
-        User user = userRepository.findByUsername(username);
+        // a user that was not found is not cached, the loader returns null for it
+        UserDetails userDetails = userDetailsCache.get(username);
 
-        if (user != null) {
-            UserDetails userDetails = new org.springframework.security.core.userdetails.User(
-                    user.getUsername(),
-                    user.getPassword(),
-                    mapRolesToAuthorities(user.getRoles())
-            );
+        if (userDetails != null) {
             if (!userDetails.isEnabled()) {
                 throw new DisabledException("User account is disabled");
             }
@@ -46,11 +70,64 @@ public class CustomUserDetailsService implements UserDetailsService {
 
         } else {
            // throw new UsernameNotFoundException("Invalid username or password.");
-            System.out.println("Invalid username or password, or logout out.");
+            // debug only, an unknown username is an everyday event and the message would flood the log under load
+            log.debug("Unknown username {}", username);
             return null;
         }
     }
 
+    // Remove a user from the cache after its roles, password or account changed
+    // inside a transaction it is removed again after the commit, a lookup in between may have loaded the old row
+    public void evictUser(String username) {
+        if (username == null) {
+            return;
+        }
+        userDetailsCache.invalidate(username);
+        invalidationCount.incrementAndGet();
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    userDetailsCache.invalidate(username);
+                }
+            });
+        }
+    }
+
+    // Remove all users from the cache, used when a role changes
+    public void evictAll() {
+        userDetailsCache.invalidateAll();
+        invalidationCount.incrementAndGet();
+    }
+
+    // hit, miss and size eviction counters of the cache
+    public CacheStats getCacheStats() {
+        return userDetailsCache.stats();
+    }
+
+    public long getInvalidationCount() {
+        return invalidationCount.get();
+    }
+
+    public long getCacheSize() {
+        return userDetailsCache.estimatedSize();
+    }
+
+    private UserDetails loadFromDatabase(String username) {
+        User user = userRepository.findByUsername(username);
+
+        if (user == null) {
+            return null;
+        }
+
+        return new org.springframework.security.core.userdetails.User(
+                user.getUsername(),
+                user.getPassword(),
+                mapRolesToAuthorities(user.getRoles())
+        );
+    }
+
     private Collection<? extends GrantedAuthority> mapRolesToAuthorities(List<Role> roles) {
         return roles.stream()
                 // add the prefix "ROLE_" to the role name, it is required by Spring Security
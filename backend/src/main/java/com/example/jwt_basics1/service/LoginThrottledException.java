@@ -0,0 +1,18 @@
+package com.example.jwt_basics1.service;
+
+import lombok.Getter;
+
+/*
+    * Thrown when the password hashing pool is full, the login is rejected right away instead of waiting
+    * The controller answers 429 Too Many Requests with a Retry-After header
+ */
+@Getter
+public class LoginThrottledException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    public LoginThrottledException(long retryAfterSeconds) {
+        super("Too many login attempts, retry in " + retryAfterSeconds + " seconds");
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.jwt_basics1.service;
+
+import com.example.jwt_basics1.dto.UserDto;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+/*
+    * The PasswordEncodingStage class encodes the passwords of created and updated users
+    * A chunk of rows is encoded in parallel on a fork-join pool sized to the cores, each row keeps its place
+    * and gets its own error, a password that is already encoded is kept as is: a BCrypt hash, or the {id} prefixed hash
+    * of an encoder registered in PasswordEncoderConfig. Any other value, {noop}secret included, is a password and is encoded
+ */
+@Component
+public class PasswordEncodingStage {
+
+    // $2a$10$ followed by the 22 chars of the salt and the 31 chars of the hash
+    private static final Pattern BCRYPT_HASH = Pattern.compile("^\\$2[aby]?\\$\\d\\d\\$[./A-Za-z0-9]{53}$");
+    // the format of DelegatingPasswordEncoder, {bcrypt}$2a$10$..., by the ids of PasswordEncoderConfig
+    // a prefix without an encoder there would be stored verbatim and could never be matched at login
+    private static final Map<String, Pattern> PREFIXED_HASHES = Map.of(
+            "bcrypt", BCRYPT_HASH,
+            // hex of the 16 bytes of the salt and the 32 bytes of the hash
+            "pbkdf2@SpringSecurity_v5_8", Pattern.compile("^[0-9a-f]{96}$"));
+
+    private final PasswordEncoder passwordEncoder;
+    private final ForkJoinPool pool;
+
+    public PasswordEncodingStage(PasswordEncoder passwordEncoder,
+                                 @Value("${security.password.encoding.parallelism:0}") int parallelism) {
+        this.passwordEncoder = passwordEncoder;
+        // encoding is CPU bound, by default one thread per core
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        this.pool = new ForkJoinPool(threads, forkJoinPool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+            thread.setName("password-encoding-" + thread.getPoolIndex());
+            thread.setDaemon(true);
+            return thread;
+        }, null, false);
+    }
+
+    // Encode a single password on the calling thread, null when there is no password
+    public String encode(String password) {
+        if (password == null || password.isEmpty() || isEncoded(password)) {
+            return password;
+        }
+        return passwordEncoder.encode(password);
+    }
+
+    // Encode the passwords of the rows in place, in parallel
+    // returns the error of every row, in the order of the rows, null for a row that is fine
+    public String[] encodeAll(List<UserDto> rows) {
+        String[] errors = new String[rows.size()];
+        pool.submit(() -> IntStream.range(0, rows.size()).parallel().forEach(i -> {
+            UserDto row = rows.get(i);
+            if (row == null) {
+                return;
+            }
+            try {
+                row.setPassword(encode(row.getPassword()));
+            } catch (RuntimeException e) { // e.g. a password longer than the 72 bytes of BCrypt
+                errors[i] = "Cannot encode the password: " + e.getMessage();
+            }
+        })).join();
+        return errors;
+    }
+
+    public static boolean isEncoded(String password) {
+        if (BCRYPT_HASH.matcher(password).matches()) {
+            return true;
+        }
+        int end = password.indexOf('}');
+        if (!password.startsWith("{") || end < 0) {
+            return false;
+        }
+        Pattern hash = PREFIXED_HASHES.get(password.substring(1, end));
+        return hash != null && hash.matcher(password.substring(end + 1)).matches();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.jwt_basics1.service;
+
+import com.example.jwt_basics1.entity.User;
+import com.example.jwt_basics1.repository.UserRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+    * The PasswordUpgradeService class re-encodes outdated password hashes after a successful login
+    * (an older algorithm, a lower cost, or a hash stored without the {id} prefix)
+    * The login does not wait: the new hash is computed on a single background thread, and the new hashes
+    * are written in batches, one transaction and one JDBC batch for every flush
+    * Upgrades are best effort, when the queue is full the upgrade is dropped and tried again on the next login
+ */
+@Slf4j
+@Service
+public class PasswordUpgradeService {
+
+    private final PasswordEncoder passwordEncoder;
+    private final UserRepository userRepository;
+    private final CustomUserDetailsService customUserDetailsService;
+    private final TransactionTemplate transactionTemplate;
+    private final ThreadPoolExecutor executor;
+    private final int batchSize;
+
+    // usernames with an upgrade queued or waiting to be written, a user is upgraded once at a time
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+    private final ConcurrentLinkedQueue<PendingUpgrade> pendingWrites = new ConcurrentLinkedQueue<>();
+
+    private final LongAdder upgradedCount = new LongAdder();
+    private final LongAdder droppedCount = new LongAdder();
+
+    public PasswordUpgradeService(PasswordEncoder passwordEncoder,
+                                  UserRepository userRepository,
+                                  CustomUserDetailsService customUserDetailsService,
+                                  PlatformTransactionManager transactionManager,
+                                  @Value("${security.password.upgrade.queue-capacity:1000}") int queueCapacity,
+                                  @Value("${security.password.upgrade.batch-size:500}") int batchSize) {
+        this.passwordEncoder = passwordEncoder;
+        this.userRepository = userRepository;
+        this.customUserDetailsService = customUserDetailsService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.batchSize = batchSize;
+        this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "password-upgrade");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    // Called after the raw password was checked against the encoded one, cheap when the hash is up to date
+    public void upgradeIfNeeded(String username, String rawPassword, String encodedPassword) {
+        if (!passwordEncoder.upgradeEncoding(encodedPassword) || !inFlight.add(username)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    pendingWrites.add(new PendingUpgrade(username, encodedPassword, passwordEncoder.encode(rawPassword)));
+                } catch (RuntimeException e) {
+                    inFlight.remove(username);
+                    log.warn("Cannot re-encode the password of {}", username, e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(username);
+            droppedCount.increment();
+        }
+    }
+
+    // Write the new hashes, a batch per transaction
+    @Scheduled(fixedDelayString = "${security.password.upgrade.flush-interval-millis:1000}")
+    public void flushUpgrades() {
+        while (!pendingWrites.isEmpty()) {
+            Map<String, PendingUpgrade> batch = new HashMap<>();
+            PendingUpgrade upgrade;
+            while (batch.size() < batchSize && (upgrade = pendingWrites.poll()) != null) {
+                batch.put(upgrade.username, upgrade);
+            }
+            try {
+                transactionTemplate.executeWithoutResult(status -> writeBatch(batch));
+            } catch (RuntimeException e) {
+                log.warn("Cannot write {} upgraded password hashes", batch.size(), e);
+            } finally {
+                inFlight.removeAll(batch.keySet());
+            }
+        }
+    }
+
+    private void writeBatch(Map<String, PendingUpgrade> batch) {
+        List<User> changed = new ArrayList<>(batch.size());
+        for (User user : userRepository.findAllByUsernameIn(batch.keySet())) {
+            PendingUpgrade upgrade = batch.get(user.getUsername());
+            // the password changed since the login, the new one is kept
+            if (upgrade != null && upgrade.oldHash.equals(user.getPassword())) {
+                user.setPassword(upgrade.newHash);
+                changed.add(user);
+            }
+        }
+        userRepository.saveAll(changed);
+        // the cached user details hold the old hash
+        changed.forEach(user -> customUserDetailsService.evictUser(user.getUsername()));
+        upgradedCount.add(changed.size());
+    }
+
+    public long getUpgradedCount() {
+        return upgradedCount.sum();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    public int getPendingCount() {
+        return inFlight.size();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    @RequiredArgsConstructor
+    private static final class PendingUpgrade {
+        private final String username;
+        private final String oldHash;
+        private final String newHash;
+    }
+}
@@ -1,59 +1,154 @@
 package com.example.jwt_basics1.service;
 
+import com.example.jwt_basics1.config.AuthMetrics;
+import com.example.jwt_basics1.config.AuthMetrics.RefreshOutcome;
+import com.example.jwt_basics1.config.JwtProperties;
 import com.example.jwt_basics1.config.JwtUtil;
+import com.example.jwt_basics1.config.VerifiedToken;
 import com.example.jwt_basics1.dto.AuthenticationResponse;
 import com.example.jwt_basics1.dto.RefreshTokenRequest;
+import com.example.jwt_basics1.dto.TokenEvent;
+import com.example.jwt_basics1.store.RefreshTokenIpRegistry;
+import com.example.jwt_basics1.store.TokenJournal;
+import com.example.jwt_basics1.store.TokenJournalFactory;
+import com.example.jwt_basics1.store.TokenReplication;
+import io.jsonwebtoken.JwtException;
+import jakarta.annotation.PostConstruct;
 import jakarta.servlet.http.HttpServletRequest;
-import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Service;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-
 @Service
-@RequiredArgsConstructor
 public class RefreshTokenService {
     private final CustomUserDetailsService customUserDetailsService;
     private final JwtUtil jwtUtil;
     private final TokenBlacklistService tokenBlacklistService;
+    private final TokenJournalFactory tokenJournalFactory;
+    // propagates the IP bindings to the other nodes, a refresh may reach any of them
+    private final TokenReplication tokenReplication;
+    private final AuthMetrics authMetrics;
+
+    // jwtID -> client IP of the login, kept as long as the refresh token is valid and capped in size
+    private final RefreshTokenIpRegistry refreshTokenIps;
+
+    // keeps the IP bindings across restarts when jwt.persistence.enabled is true
+    private TokenJournal journal;
+
+    public RefreshTokenService(CustomUserDetailsService customUserDetailsService,
+                               JwtUtil jwtUtil,
+                               TokenBlacklistService tokenBlacklistService,
+                               TokenJournalFactory tokenJournalFactory,
+                               TokenReplication tokenReplication,
+                               AuthMetrics authMetrics,
+                               @Value("${jwt.refresh-ips.max-entries:1000000}") long maxRefreshTokenIps) {
+        this.customUserDetailsService = customUserDetailsService;
+        this.jwtUtil = jwtUtil;
+        this.tokenBlacklistService = tokenBlacklistService;
+        this.tokenJournalFactory = tokenJournalFactory;
+        this.tokenReplication = tokenReplication;
+        this.authMetrics = authMetrics;
+        // one expiration bucket per minute, a refresh token lives for days
+        this.refreshTokenIps = new RefreshTokenIpRegistry(maxRefreshTokenIps, 60_000);
+    }
 
-    private final Map<String,String> refreshTokenIps = new ConcurrentHashMap<>();
+    // Restore the IP bindings of the previous run, then start from a compacted snapshot
+    @PostConstruct
+    public void restore() {
+        journal = tokenJournalFactory.open("refresh-token-ips");
+        journal.replay(entry -> refreshTokenIps.put(entry.getKey(), entry.getValue(), entry.getExpiresAt()));
+        journal.compact(refreshTokenIps::liveEntries);
+        tokenReplication.subscribe(event -> {
+            if (event.getType() == TokenEvent.Type.REFRESH_IP && event.getExpiresAt() > System.currentTimeMillis()) {
+                refreshTokenIps.put(event.getJwtID(), event.getValue(), event.getExpiresAt());
+                journal.append(event.getJwtID(), event.getValue(), event.getExpiresAt());
+            }
+        });
+    }
 
     public AuthenticationResponse refreshAccessToken(RefreshTokenRequest refreshTokenRequest) {
+        long start = System.nanoTime();
+        RefreshOutcome outcome = RefreshOutcome.ERROR;
+        try {
+            String refreshToken = refreshTokenRequest.getRefreshToken();
 
-        String refreshToken = refreshTokenRequest.getRefreshToken();
+            // verify and parse the refresh token once
+            VerifiedToken verifiedToken;
+            try {
+                verifiedToken = jwtUtil.parseToken(refreshToken);
+            } catch (JwtException | IllegalArgumentException e) {
+                outcome = RefreshOutcome.INVALID_TOKEN;
+                throw e;
+            }
 
-        // get the id from refresh token for the new access token
-        String jwtID = jwtUtil.extractJWTID(refreshToken);
+            // get the id from refresh token for the new access token
+            String jwtID = verifiedToken.getJwtID();
 
-        // check if the refresh token's id is blacklisted
-        if (tokenBlacklistService.isTokenBlacklisted(jwtID)) {
-            throw new RuntimeException("Token is blacklisted");
-        }
+            // check if the refresh token's id is blacklisted
+            if (tokenBlacklistService.isTokenBlacklisted(jwtID)) {
+                outcome = RefreshOutcome.BLACKLISTED;
+                throw new RuntimeException("Token is blacklisted");
+            }
 
-        // load the user details from the refresh token
-        String username = jwtUtil.extractUsername(refreshToken);
-        UserDetails userDetails = customUserDetailsService.loadUserByUsername(username);
+            // load the user details from the refresh token
+            String username = verifiedToken.getSubject();
+            UserDetails userDetails = customUserDetailsService.loadUserByUsername(username);
 
-        String clientIP = refreshTokenRequest.getIp();
-        String storedIP = refreshTokenIps.get(jwtID);
-        if (!storedIP.equals(clientIP)) {
-            throw new RuntimeException("Invalid IP address for this refresh token");
-        }
+            String clientIP = refreshTokenRequest.getIp();
+            if (clientIP == null || !refreshTokenIps.matches(jwtID, clientIP)) {
+                outcome = RefreshOutcome.IP_MISMATCH;
+                throw new RuntimeException("Invalid IP address for this refresh token");
+            }
+
+            // check if the refresh token is valid
+            if (userDetails == null || !jwtUtil.validateToken(verifiedToken, userDetails)) {
+                outcome = userDetails == null ? RefreshOutcome.UNKNOWN_USER : RefreshOutcome.INVALID_TOKEN;
+                throw new RuntimeException("Invalid or expired refresh token");
+            }
+
+            // create a new access token, along with a new refresh token
+            AuthenticationResponse tokens = jwtUtil.issueTokenPair(userDetails, jwtID);
 
-        // check if the refresh token is valid
-        if (!jwtUtil.validateToken(refreshToken, userDetails)) {
-            throw new RuntimeException("Invalid or expired refresh token");
+            // the new refresh token lives longer than the old one, so does its IP binding
+            storeRefreshTokenIp(jwtID, clientIP);
+
+            outcome = RefreshOutcome.SUCCESS;
+            return tokens;
+        } finally {
+            authMetrics.recordRefresh(outcome, System.nanoTime() - start);
         }
+    }
 
-        // create a new access token
-        String newAccessToken = jwtUtil.generateToken(null, userDetails, jwtID);
-        String newRefreshToken = jwtUtil.generateRefreshToken(null, userDetails, jwtID);
+    public void storeRefreshTokenIp(String jwtId, String ip) {
+        long expiresAt = System.currentTimeMillis() + JwtProperties.REFRESH_TOKEN_EXPIRATION_TIME;
+        refreshTokenIps.put(jwtId, ip, expiresAt);
+        journal.append(jwtId, ip, expiresAt);
+        // without the binding the refresh token is useless after a crash, so the tokens are returned once it is durable
+        journal.awaitDurable();
+        tokenReplication.publish(TokenEvent.Type.REFRESH_IP, jwtId, ip, expiresAt);
+    }
 
-        // returns the new access token along with the refresh token
-        return new AuthenticationResponse(newAccessToken, newRefreshToken);
+    // Remove the expired bindings, only the expiration buckets that already ended are visited
+    @Scheduled(fixedRate = 60_000)
+    public void scheduledCleanup() {
+        refreshTokenIps.sweep();
     }
 
-    public void storeRefreshTokenIp(String jwtId, String ip) { refreshTokenIps.put(jwtId, ip); }
+    // Rewrite the journal from the live bindings once enough was appended
+    @Scheduled(fixedDelay = 60_000)
+    public void scheduledCompaction() {
+        if (journal.needsCompaction()) {
+            journal.compact(refreshTokenIps::liveEntries);
+        }
+    }
+
+    public int getRefreshTokenIpCount() {
+        return refreshTokenIps.size();
+    }
+
+    // bindings dropped because the registry was full, not because they expired
+    public long getRefreshTokenIpCapacityEvictions() {
+        return refreshTokenIps.getCapacityEvictions();
+    }
 }
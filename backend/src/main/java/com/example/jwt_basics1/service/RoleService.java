@@ -4,22 +4,95 @@ package com.example.jwt_basics1.service;
 import com.example.jwt_basics1.entity.Role;
 import com.example.jwt_basics1.repository.RoleRepository;
 import lombok.RequiredArgsConstructor;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Service
 @RequiredArgsConstructor
 public class RoleService {
 
     private final RoleRepository roleRepository;
+    private final CustomUserDetailsService customUserDetailsService;
+    private final UserRevocationService userRevocationService;
+
+    // roleName -> role, the roles are a tiny and almost static set, so they are kept in memory
+    // warmed at startup and changed only through saveRole / deleteRole
+    private final Map<String, Role> rolesByName = new ConcurrentHashMap<>();
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        roleRepository.findAll().forEach(role -> rolesByName.put(role.getRoleName(), role));
+    }
 
     public Optional<Role> getRoleById(Long id) {
         return roleRepository.findById(id);
     }
 
     public Optional<Role> findByRoleName(String roleName) {
-        return roleRepository.findByRoleName(roleName);
+        Role cached = rolesByName.get(roleName);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+        Optional<Role> role = roleRepository.findByRoleName(roleName);
+        role.ifPresent(found -> rolesByName.put(found.getRoleName(), found));
+        return role;
+    }
+
+    // Resolve several role names at once, the names missing from memory are read in a single query
+    // a name that does not exist is missing from the result
+    public Map<String, Role> findByRoleNames(Collection<String> roleNames) {
+        Map<String, Role> found = new HashMap<>();
+        List<String> missing = null;
+        for (String roleName : roleNames) {
+            Role cached = rolesByName.get(roleName);
+            if (cached != null) {
+                found.put(roleName, cached);
+            } else {
+                if (missing == null) {
+                    missing = new ArrayList<>();
+                }
+                missing.add(roleName);
+            }
+        }
+        if (missing != null) {
+            for (Role role : roleRepository.findByRoleNameIn(missing)) {
+                rolesByName.put(role.getRoleName(), role);
+                found.put(role.getRoleName(), role);
+            }
+        }
+        return found;
+    }
+
+    public Role saveRole(Role role) {
+        // a new role is held by no user yet, the tokens already issued stay right
+        boolean renamed = role.getId() != null;
+        Role saved = roleRepository.save(role);
+        invalidate(renamed);
+        return saved;
+    }
+
+    public void deleteRole(Long id) {
+        roleRepository.deleteById(id);
+        invalidate(true);
+    }
+
+    // a renamed or removed role changes the authorities of its users, they are loaded again
+    // and in claims-trust mode the tokens carrying the old authority are not trusted anymore
+    private void invalidate(boolean authoritiesChanged) {
+        rolesByName.clear();
+        warmUp();
+        customUserDetailsService.evictAll();
+        if (authoritiesChanged) {
+            userRevocationService.markRolesChanged();
+        }
     }
 }
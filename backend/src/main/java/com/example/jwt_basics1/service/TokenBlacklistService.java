@@ -1,38 +1,164 @@
 package com.example.jwt_basics1.service;
 
-import com.example.jwt_basics1.config.JwtUtil;
+import com.example.jwt_basics1.config.JwtProperties;
+import com.example.jwt_basics1.dto.TokenEvent;
+import com.example.jwt_basics1.store.ExpiryBuckets;
+import com.example.jwt_basics1.store.JournalEntry;
+import com.example.jwt_basics1.store.RevokedTokenFilter;
+import com.example.jwt_basics1.store.TokenJournal;
+import com.example.jwt_basics1.store.TokenJournalFactory;
+import com.example.jwt_basics1.store.TokenReplication;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import java.util.Date;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
 
 @Service
 public class TokenBlacklistService {
 
-    private final Map<String, Date> blacklistedTokens = new ConcurrentHashMap<>();
+    // expired ids are removed in the background, one bucket per second of expiration time
+    private static final long EXPIRY_BUCKET_MILLIS = 1_000;
+
+    // jwtID -> expiration time in millis
+    private final Map<String, Long> blacklistedTokens = new ConcurrentHashMap<>();
+    private final ExpiryBuckets<String> expiryBuckets = new ExpiryBuckets<>(EXPIRY_BUCKET_MILLIS);
+
+    // Bloom filters in front of the map, almost every checked id is not revoked and is answered by the filter alone
+    // access token ids rotate with the access token lifetime, anything living longer goes to the refresh token filter
+    private final RevokedTokenFilter accessTokenFilter;
+    private final RevokedTokenFilter refreshTokenFilter;
+
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder filterFalsePositives = new LongAdder();
+
+    // keeps the blacklist across restarts when jwt.persistence.enabled is true
+    private final TokenJournal journal;
+    // propagates the blacklisted ids to the other nodes, the lookups only read the local state
+    private final TokenReplication replication;
+
+    public TokenBlacklistService(@Value("${jwt.blacklist.filter.expected-insertions:1000000}") long expectedInsertions,
+                                 @Value("${jwt.blacklist.filter.false-positive-rate:0.01}") double falsePositiveRate,
+                                 TokenJournalFactory tokenJournalFactory,
+                                 TokenReplication tokenReplication) {
+        this.accessTokenFilter = new RevokedTokenFilter(
+                JwtProperties.ACCESS_TOKEN_EXPIRATION_TIME, expectedInsertions, falsePositiveRate);
+        this.refreshTokenFilter = new RevokedTokenFilter(
+                JwtProperties.REFRESH_TOKEN_EXPIRATION_TIME, expectedInsertions, falsePositiveRate);
+        this.journal = tokenJournalFactory.open("blacklist");
+        this.replication = tokenReplication;
+    }
+
+    // Restore the blacklist of the previous run, then start from a compacted snapshot
+    @PostConstruct
+    public void restore() {
+        journal.replay(entry -> addToBlacklist(entry.getKey(), entry.getExpiresAt()));
+        journal.compact(this::liveEntries);
+        replication.subscribe(event -> {
+            if (event.getType() == TokenEvent.Type.REVOKE && addToBlacklist(event.getJwtID(), event.getExpiresAt())) {
+                journal.append(event.getJwtID(), null, event.getExpiresAt());
+            }
+        });
+    }
 
     // Enter a token to the blacklist
     public void blacklistToken(String jwtID, Date expirationTime) { // were token before id
-        blacklistedTokens.put(jwtID, expirationTime);
+        long expiresAt = expirationTime.getTime();
+        if (addToBlacklist(jwtID, expiresAt)) {
+            journal.append(jwtID, null, expiresAt);
+            // the logout is acknowledged only once the revocation survives a crash
+            journal.awaitDurable();
+            replication.publish(TokenEvent.Type.REVOKE, jwtID, null, expiresAt);
+        }
+    }
+
+    private boolean addToBlacklist(String jwtID, long expiresAt) {
+        long now = System.currentTimeMillis();
+        if (expiresAt <= now) {
+            return false; // the token is already expired, it cannot be used anymore
+        }
+        // the filter is updated first, so a lookup never misses an id that is already in the map
+        if (expiresAt - now <= accessTokenFilter.getWindowMillis()) {
+            accessTokenFilter.add(jwtID);
+        } else {
+            refreshTokenFilter.add(jwtID);
+        }
+        blacklistedTokens.merge(jwtID, expiresAt, Math::max);
+        if (!expiryBuckets.add(jwtID, expiresAt)) {
+            removeIfExpired(jwtID);
+        }
+        return true;
     }
 
     // Check if a token is in the blacklist
+    // ids rejected by the filters are answered without the map, an id that expired but was not removed yet is not reported
     public boolean isTokenBlacklisted(String jwtID) {
-        cleanupExpiredTokens();
-        return blacklistedTokens.containsKey(jwtID);
+        lookups.increment();
+        if (!accessTokenFilter.mightContain(jwtID) && !refreshTokenFilter.mightContain(jwtID)) {
+            return false;
+        }
+        Long expiresAt = blacklistedTokens.get(jwtID);
+        if (expiresAt == null) {
+            filterFalsePositives.increment();
+            return false;
+        }
+        return expiresAt > System.currentTimeMillis();
     }
 
-    // Remove expired tokens from the blacklist
+    // Remove expired tokens from the blacklist, only the buckets that already ended are visited
     public void cleanupExpiredTokens() {
-        Date now = new Date();
-        blacklistedTokens.values().removeIf(date -> date.before(now));
+        long now = System.currentTimeMillis();
+        expiryBuckets.expire(now, this::removeIfExpired);
+        accessTokenFilter.rotateIfNeeded(now);
+        refreshTokenFilter.rotateIfNeeded(now);
+    }
+
+    public int getBlacklistSize() {
+        return blacklistedTokens.size();
     }
 
-    @Scheduled(fixedRate = 300_000)
+    // false positive rate expected from the number of ids in the filters
+    public double getFilterExpectedFalsePositiveRate() {
+        return 1 - (1 - accessTokenFilter.getExpectedFalsePositiveRate())
+                * (1 - refreshTokenFilter.getExpectedFalsePositiveRate());
+    }
+
+    // false positive rate observed on the lookups since startup
+    public double getFilterObservedFalsePositiveRate() {
+        long total = lookups.sum();
+        return total == 0 ? 0 : (double) filterFalsePositives.sum() / total;
+    }
+
+    public long getFilterMemoryBytes() {
+        return accessTokenFilter.getMemoryBytes() + refreshTokenFilter.getMemoryBytes();
+    }
+
+    @Scheduled(fixedRate = EXPIRY_BUCKET_MILLIS)
     public void scheduledCleanup() {
         cleanupExpiredTokens();
     }
+
+    // Rewrite the journal from the live entries once enough was appended, the expired ids are dropped from it
+    @Scheduled(fixedDelay = 60_000)
+    public void scheduledCompaction() {
+        if (journal.needsCompaction()) {
+            journal.compact(this::liveEntries);
+        }
+    }
+
+    private Stream<JournalEntry> liveEntries() {
+        return blacklistedTokens.entrySet().stream()
+                .map(entry -> new JournalEntry(entry.getKey(), null, entry.getValue()));
+    }
+
+    // the same id may have been blacklisted again with a later expiration time
+    private void removeIfExpired(String jwtID) {
+        long now = System.currentTimeMillis();
+        blacklistedTokens.computeIfPresent(jwtID, (id, expiresAt) -> expiresAt <= now ? null : expiresAt);
+    }
 }
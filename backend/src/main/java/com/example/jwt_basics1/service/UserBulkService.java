@@ -0,0 +1,189 @@
+package com.example.jwt_basics1.service;
+
+import com.example.jwt_basics1.dto.BulkUserResult;
+import com.example.jwt_basics1.dto.UserDto;
+import com.example.jwt_basics1.entity.Role;
+import com.example.jwt_basics1.entity.User;
+import com.example.jwt_basics1.mapper.UserMapper;
+import com.example.jwt_basics1.repository.UserRepository;
+import com.example.jwt_basics1.repository.UsernameRow;
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/*
+    * The UserBulkService class creates and updates users in chunks, each chunk in its own transaction
+    * A row without an id creates a user, a row with an id updates it, the passwords are encoded in parallel first
+    * The checks of a whole chunk (usernames, roles, existing users) cost one query each, the inserts are sent
+    * in JDBC batches (hibernate.jdbc.batch_size), and every row gets its own result
+    * When a chunk fails in the database it is rolled back and its rows are written again one per transaction,
+    * so only the rows that really fail are reported as failed
+ */
+@Service
+public class UserBulkService {
+
+    private final UserRepository userRepository;
+    private final UserMapper userMapper;
+    private final RoleService roleService;
+    private final UserRevocationService userRevocationService;
+    private final CustomUserDetailsService customUserDetailsService;
+    private final PasswordEncodingStage passwordEncodingStage;
+    private final TransactionTemplate transactionTemplate;
+
+    @Getter
+    private final int chunkSize;
+
+    public UserBulkService(UserRepository userRepository,
+                           UserMapper userMapper,
+                           RoleService roleService,
+                           UserRevocationService userRevocationService,
+                           CustomUserDetailsService customUserDetailsService,
+                           PasswordEncodingStage passwordEncodingStage,
+                           PlatformTransactionManager transactionManager,
+                           @Value("${users.bulk.chunk-size:1000}") int chunkSize) {
+        this.userRepository = userRepository;
+        this.userMapper = userMapper;
+        this.roleService = roleService;
+        this.userRevocationService = userRevocationService;
+        this.customUserDetailsService = customUserDetailsService;
+        this.passwordEncodingStage = passwordEncodingStage;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.chunkSize = chunkSize;
+    }
+
+    // Write one chunk of rows, firstIndex is the position of its first row in the whole import
+    public List<BulkUserResult> importChunk(int firstIndex, List<UserDto> rows) {
+        if (rows.isEmpty()) {
+            return List.of();
+        }
+        // encoded before the transaction, no connection is held while the passwords are hashed
+        String[] encodingErrors = passwordEncodingStage.encodeAll(rows);
+        try {
+            return transactionTemplate.execute(status -> writeRows(firstIndex, rows, encodingErrors));
+        } catch (RuntimeException chunkError) {
+            // the whole chunk was rolled back, find the failing rows one by one
+            List<BulkUserResult> results = new ArrayList<>(rows.size());
+            for (int i = 0; i < rows.size(); i++) {
+                int index = firstIndex + i;
+                UserDto row = rows.get(i);
+                try {
+                    String[] rowEncodingError = {encodingErrors[i]};
+                    results.add(transactionTemplate.execute(status ->
+                            writeRows(index, Collections.singletonList(row), rowEncodingError).get(0)));
+                } catch (RuntimeException rowError) {
+                    results.add(BulkUserResult.failed(index, row == null ? null : row.getUsername(), rootMessage(rowError)));
+                }
+            }
+            return results;
+        }
+    }
+
+    private List<BulkUserResult> writeRows(int firstIndex, List<UserDto> rows, String[] encodingErrors) {
+        BulkUserResult[] results = new BulkUserResult[rows.size()];
+
+        // everything the checks need, for the whole chunk at once
+        Set<String> usernames = rows.stream().filter(Objects::nonNull).map(UserDto::getUsername).filter(Objects::nonNull).collect(Collectors.toSet());
+        Map<String, Long> usernameOwners = usernames.isEmpty() ? Map.of()
+                : userRepository.findUsernamesIn(usernames).stream()
+                        .collect(Collectors.toMap(UsernameRow::getUsername, UsernameRow::getId));
+        Set<Long> ids = rows.stream().filter(Objects::nonNull).map(UserDto::getId).filter(Objects::nonNull).collect(Collectors.toSet());
+        Map<Long, User> existingUsers = ids.isEmpty() ? Map.of()
+                : userRepository.findAllById(ids).stream().collect(Collectors.toMap(User::getId, Function.identity()));
+        Set<String> roleNames = rows.stream().filter(Objects::nonNull).map(UserDto::getRoles).filter(Objects::nonNull)
+                .flatMap(Set::stream).collect(Collectors.toSet());
+        Map<String, Role> roles = roleService.findByRoleNames(roleNames);
+
+        Set<String> claimedUsernames = new HashSet<>();
+        List<User> toSave = new ArrayList<>(rows.size());
+        int[] savedRows = new int[rows.size()];
+
+        for (int i = 0; i < rows.size(); i++) {
+            UserDto row = rows.get(i);
+            String error = encodingErrors[i] != null ? encodingErrors[i]
+                    : validate(row, usernameOwners, existingUsers, roles, claimedUsernames);
+            if (error != null) {
+                results[i] = BulkUserResult.failed(firstIndex + i, row == null ? null : row.getUsername(), error);
+                continue;
+            }
+
+            User user;
+            if (row.getId() == null) {
+                user = userMapper.toEntity(row);
+            } else {
+                user = existingUsers.get(row.getId());
+                // same as a single update, the old tokens and the cached user details are not trusted anymore
+                userRevocationService.markChanged(user.getUsername());
+                userRevocationService.markChanged(row.getUsername());
+                customUserDetailsService.evictUser(user.getUsername());
+                customUserDetailsService.evictUser(row.getUsername());
+                userMapper.updateEntityFromDto(user, row);
+            }
+            savedRows[toSave.size()] = i;
+            toSave.add(user);
+        }
+
+        // the new users are persisted, the updated ones are already managed, all written at the commit
+        List<User> saved = userRepository.saveAll(toSave);
+        for (int j = 0; j < saved.size(); j++) {
+            int i = savedRows[j];
+            User user = saved.get(j);
+            BulkUserResult.Status status = rows.get(i).getId() == null
+                    ? BulkUserResult.Status.CREATED : BulkUserResult.Status.UPDATED;
+            results[i] = new BulkUserResult(firstIndex + i, user.getId(), user.getUsername(), status, null);
+        }
+        return Arrays.asList(results);
+    }
+
+    private static String validate(UserDto row, Map<String, Long> usernameOwners, Map<Long, User> existingUsers,
+                                   Map<String, Role> roles, Set<String> claimedUsernames) {
+        if (row == null) {
+            return "Empty row";
+        }
+        if (row.getUsername() == null || row.getUsername().isBlank()) {
+            return "Username is required";
+        }
+        if (row.getPassword() == null || row.getPassword().isEmpty()) {
+            return "Password is required";
+        }
+        if (row.getRoles() == null) {
+            return "Roles are required";
+        }
+        for (String roleName : row.getRoles()) {
+            if (!roles.containsKey(roleName)) {
+                return "Role not found: " + roleName;
+            }
+        }
+        if (row.getId() != null && !existingUsers.containsKey(row.getId())) {
+            return "User not found with ID " + row.getId();
+        }
+        Long owner = usernameOwners.get(row.getUsername());
+        if (owner != null && !owner.equals(row.getId())) {
+            return "Username is already taken";
+        }
+        if (!claimedUsernames.add(row.getUsername())) {
+            return "Username appears twice in the import";
+        }
+        return null;
+    }
+
+    private static String rootMessage(Throwable error) {
+        Throwable root = error;
+        while (root.getCause() != null && root.getCause() != root) {
+            root = root.getCause();
+        }
+        return root.getMessage();
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.jwt_basics1.service;
+
+import com.example.jwt_basics1.config.JwtProperties;
+import com.example.jwt_basics1.config.VerifiedToken;
+import com.example.jwt_basics1.dto.TokenEvent;
+import com.example.jwt_basics1.store.JournalEntry;
+import com.example.jwt_basics1.store.TokenJournal;
+import com.example.jwt_basics1.store.TokenJournalFactory;
+import com.example.jwt_basics1.store.TokenReplication;
+import jakarta.annotation.PostConstruct;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/*
+    * The UserRevocationService keeps a per-user marker of the last time the user's roles, password or account changed
+    * In claims-trust mode, a token issued before that marker is not trusted and the user is loaded from the database
+    * The markers are journaled and replicated like the blacklisted ids, so a restarted node or a peer does not trust
+    * the old roles of a token again. A marker is kept for one access token lifetime, its expiresAt in the journal
+    * and in the replicated USER_CHANGED event, the time of the change is expiresAt minus that lifetime
+    * A renamed or deleted role changes the authorities of all its users, so it moves one marker that covers every user
+    * (ROLES_CHANGED). Roles change rarely, and the tokens issued before are checked against the database until they expire
+ */
+@Service
+public class UserRevocationService {
+
+    // the value of the journal entry of the roles marker, the entries of the users have no value
+    private static final String ROLES_MARKER = "roles";
+
+    // username -> time (epoch millis) of the last change to the user
+    private final Map<String, Long> changedAt = new ConcurrentHashMap<>();
+    // time (epoch millis) of the last change to any role, 0 when none
+    private final AtomicLong rolesChangedAt = new AtomicLong();
+
+    // keeps the markers across restarts when jwt.persistence.enabled is true
+    private final TokenJournal journal;
+    // propagates the markers to the other nodes, a token may be presented to any of them
+    private final TokenReplication replication;
+
+    public UserRevocationService(TokenJournalFactory tokenJournalFactory, TokenReplication tokenReplication) {
+        this.journal = tokenJournalFactory.open("user-changes");
+        this.replication = tokenReplication;
+    }
+
+    // Restore the markers of the previous run, then start from a compacted snapshot
+    @PostConstruct
+    public void restore() {
+        journal.replay(entry -> {
+            if (ROLES_MARKER.equals(entry.getValue())) {
+                applyRoles(entry.getExpiresAt());
+            } else {
+                apply(entry.getKey(), entry.getExpiresAt());
+            }
+        });
+        journal.compact(this::liveEntries);
+        replication.subscribe(event -> {
+            if (event.getType() == TokenEvent.Type.USER_CHANGED && apply(event.getJwtID(), event.getExpiresAt())) {
+                journal.append(event.getJwtID(), null, event.getExpiresAt());
+            } else if (event.getType() == TokenEvent.Type.ROLES_CHANGED && applyRoles(event.getExpiresAt())) {
+                journal.append("", ROLES_MARKER, event.getExpiresAt());
+            }
+        });
+    }
+
+    // Record that a user changed, tokens issued until now must be checked against the database
+    public void markChanged(String username) {
+        if (username == null) {
+            return;
+        }
+        long expiresAt = System.currentTimeMillis() + JwtProperties.ACCESS_TOKEN_EXPIRATION_TIME;
+        if (apply(username, expiresAt)) {
+            journal.append(username, null, expiresAt);
+            journal.awaitDurable();
+            replication.publish(TokenEvent.Type.USER_CHANGED, username, null, expiresAt);
+        }
+    }
+
+    // Record that a role was renamed or deleted, every token issued until now must be checked against the database
+    public void markRolesChanged() {
+        long expiresAt = System.currentTimeMillis() + JwtProperties.ACCESS_TOKEN_EXPIRATION_TIME;
+        if (applyRoles(expiresAt)) {
+            journal.append("", ROLES_MARKER, expiresAt);
+            journal.awaitDurable();
+            replication.publish(TokenEvent.Type.ROLES_CHANGED, "", null, expiresAt);
+        }
+    }
+
+    // Check if the token was issued before the last change of its user or of any role
+    public boolean isIssuedBeforeChange(VerifiedToken token) {
+        // the iat claim has a precision of seconds, so a token issued in the same second as the change is treated as stale
+        long issuedAt = token.getIssuedAt().getTime();
+        if (issuedAt <= rolesChangedAt.get()) {
+            return true;
+        }
+        Long changed = changedAt.get(token.getSubject());
+        return changed != null && issuedAt <= changed;
+    }
+
+    // returns false for a marker that is expired, or not newer than the one already kept
+    private boolean apply(String username, long expiresAt) {
+        if (expiresAt <= System.currentTimeMillis()) {
+            return false;
+        }
+        long changed = expiresAt - JwtProperties.ACCESS_TOKEN_EXPIRATION_TIME;
+        return changedAt.merge(username, changed, Math::max) == changed;
+    }
+
+    private boolean applyRoles(long expiresAt) {
+        if (expiresAt <= System.currentTimeMillis()) {
+            return false;
+        }
+        long changed = expiresAt - JwtProperties.ACCESS_TOKEN_EXPIRATION_TIME;
+        return rolesChangedAt.accumulateAndGet(changed, Math::max) == changed;
+    }
+
+    // A marker is only needed while access tokens issued before it can still be valid
+    @Scheduled(fixedRate = JwtProperties.ACCESS_TOKEN_EXPIRATION_TIME)
+    public void scheduledCleanup() {
+        long oldest = System.currentTimeMillis() - JwtProperties.ACCESS_TOKEN_EXPIRATION_TIME;
+        changedAt.values().removeIf(changed -> changed < oldest);
+    }
+
+    // Rewrite the journal from the live markers once enough was appended
+    @Scheduled(fixedDelay = 60_000)
+    public void scheduledCompaction() {
+        if (journal.needsCompaction()) {
+            journal.compact(this::liveEntries);
+        }
+    }
+
+    private Stream<JournalEntry> liveEntries() {
+        Stream<JournalEntry> users = changedAt.entrySet().stream()
+                .map(entry -> new JournalEntry(entry.getKey(), null,
+                        entry.getValue() + JwtProperties.ACCESS_TOKEN_EXPIRATION_TIME));
+        long rolesExpireAt = rolesChangedAt.get() + JwtProperties.ACCESS_TOKEN_EXPIRATION_TIME;
+        return rolesExpireAt > System.currentTimeMillis()
+                ? Stream.concat(Stream.of(new JournalEntry("", ROLES_MARKER, rolesExpireAt)), users)
+                : users;
+    }
+}
@@ -2,26 +2,75 @@ package com.example.jwt_basics1.service;
 
 import com.example.jwt_basics1.mapper.UserMapper;
 import com.example.jwt_basics1.dto.UserDto;
+import com.example.jwt_basics1.dto.UserPageDto;
 import com.example.jwt_basics1.entity.User;
 import com.example.jwt_basics1.repository.UserRepository;
+import com.example.jwt_basics1.repository.UserRoleRow;
 import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 @Service
 @RequiredArgsConstructor
 public class UserService {
 
+    private static final int DEFAULT_PAGE_SIZE = 20;
+    private static final int MAX_PAGE_SIZE = 100;
+
     private final UserRepository userRepository;
     private final UserMapper userMapper;
+    private final UserRevocationService userRevocationService;
+    private final CustomUserDetailsService customUserDetailsService;
+    private final PasswordEncodingStage passwordEncodingStage;
 
+    // Keyset pagination on the user id, the cursor is the opaque form of the last id of the previous page
     @Transactional
-    public List<UserDto> getAllUsers() {
-        return userRepository.findAll().stream()
-                .map(userMapper::toDto)
-                .toList();
+    public UserPageDto getUsersPage(String cursor, Integer size) {
+        int pageSize = size == null ? DEFAULT_PAGE_SIZE : Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+        long afterId = decodeCursor(cursor);
+
+        // one user more than the page, to know if there is a next page
+        List<UserDto> users = userMapper.toDtos(userRepository.findUserRolesAfter(afterId, pageSize + 1));
+
+        String nextCursor = null;
+        if (users.size() > pageSize) {
+            users = users.subList(0, pageSize);
+            nextCursor = encodeCursor(users.get(pageSize - 1).getId());
+        }
+        return new UserPageDto(users, nextCursor);
+    }
+
+    // Hand every user to the consumer, one at a time while the rows are read, nothing is collected in memory
+    @Transactional
+    public void forEachUser(Consumer<UserDto> consumer) {
+        try (Stream<UserRoleRow> rows = userRepository.streamAllUserRoles()) {
+            userMapper.groupRows(rows.iterator(), consumer);
+        }
+    }
+
+    private static String encodeCursor(long id) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(("id:" + id).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static long decodeCursor(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return 0;
+        }
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            if (!decoded.startsWith("id:")) {
+                throw new IllegalArgumentException("Invalid cursor " + cursor);
+            }
+            return Long.parseLong(decoded.substring("id:".length()));
+        } catch (IllegalArgumentException e) { // also NumberFormatException
+            throw new IllegalArgumentException("Invalid cursor " + cursor);
+        }
     }
 
     @Transactional
@@ -31,6 +80,8 @@ public class UserService {
 
     @Transactional
     public UserDto createUser(UserDto userDto) {
+        // a failed lookup is not cached, nothing to evict for a new user
+        userDto.setPassword(passwordEncodingStage.encode(userDto.getPassword()));
         return userMapper.toDto(userRepository.save(userMapper.toEntity(userDto)));
     }
 
@@ -39,14 +90,21 @@ public class UserService {
         if (userDto.getId() != null && !userDto.getId().equals(id))
             throw new IllegalArgumentException(("Path ID " + id + " does not match body ID " + userDto.getId()));
 
+        // the password of a user read from GET /users/{id} is already encoded, and stays as is
+        userDto.setPassword(passwordEncodingStage.encode(userDto.getPassword()));
+
         User existingUser = userRepository.getUsersById(id)
                 .orElseThrow(() -> new RuntimeException("User not found with ID " + id));
 
-        userRepository.findUserByUsername(userDto.getUsername())
-                .ifPresent(foundUser -> {
-                    if (!foundUser.getId().equals(id))
-                        throw new IllegalArgumentException("Username is already taken");
-                });
+        if (userRepository.existsByUsernameAndIdNot(userDto.getUsername(), id))
+            throw new IllegalArgumentException("Username is already taken");
+
+        // tokens issued before this change must not be trusted by their roles claim anymore
+        userRevocationService.markChanged(existingUser.getUsername());
+        userRevocationService.markChanged(userDto.getUsername());
+        // the cached user details hold the old roles and password
+        customUserDetailsService.evictUser(existingUser.getUsername());
+        customUserDetailsService.evictUser(userDto.getUsername());
 
         userMapper.updateEntityFromDto(existingUser, userDto);
 
@@ -56,9 +114,11 @@ public class UserService {
 
     @Transactional
     public void deleteUser(Long id) {
-        if (!userRepository.existsById(id))
-            throw new IllegalArgumentException("Student with id " + id + " does not exist");
+        User existingUser = userRepository.getUsersById(id)
+                .orElseThrow(() -> new IllegalArgumentException("Student with id " + id + " does not exist"));
 
+        userRevocationService.markChanged(existingUser.getUsername());
+        customUserDetailsService.evictUser(existingUser.getUsername());
         userRepository.deleteById(id);
     }
 }
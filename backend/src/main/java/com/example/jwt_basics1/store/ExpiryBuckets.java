@@ -0,0 +1,63 @@
+package com.example.jwt_basics1.store;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/*
+    * The ExpiryBuckets class groups keys by the time slot in which they expire, ordered by that time
+    * Expiring keys only touches the buckets that are already in the past, never the keys that are still valid
+ */
+public class ExpiryBuckets<K> {
+
+    private final long bucketMillis;
+
+    // bucket number (expiration time / bucketMillis) -> keys that expire during that bucket
+    private final ConcurrentSkipListMap<Long, Queue<K>> buckets = new ConcurrentSkipListMap<>();
+
+    public ExpiryBuckets(long bucketMillis) {
+        this.bucketMillis = bucketMillis;
+    }
+
+    // Add a key to the bucket of its expiration time
+    // returns false if that bucket was expired concurrently, the caller must then drop the key itself
+    public boolean add(K key, long expiresAt) {
+        long bucket = bucketOf(expiresAt);
+        Queue<K> keys = buckets.computeIfAbsent(bucket, b -> new ConcurrentLinkedQueue<>());
+        keys.add(key);
+        return buckets.get(bucket) == keys;
+    }
+
+    // Hand every key of the buckets that ended before now to onExpired, and drop those buckets
+    public void expire(long now, Consumer<K> onExpired) {
+        long currentBucket = now / bucketMillis;
+        Map.Entry<Long, Queue<K>> oldest;
+        while ((oldest = buckets.firstEntry()) != null && oldest.getKey() < currentBucket) {
+            if (buckets.remove(oldest.getKey(), oldest.getValue())) {
+                oldest.getValue().forEach(onExpired);
+            }
+        }
+    }
+
+    // Hand the keys of the oldest bucket to onExpired even if it did not end yet, used to free space
+    // with the number of that bucket, a key added again with a later expiration time is also in a later bucket
+    public boolean expireOldest(BiConsumer<K, Long> onExpired) {
+        Map.Entry<Long, Queue<K>> oldest = buckets.pollFirstEntry();
+        if (oldest == null) {
+            return false;
+        }
+        oldest.getValue().forEach(key -> onExpired.accept(key, oldest.getKey()));
+        return true;
+    }
+
+    public long bucketOf(long expiresAt) {
+        return expiresAt / bucketMillis;
+    }
+
+    public int bucketCount() {
+        return buckets.size();
+    }
+}
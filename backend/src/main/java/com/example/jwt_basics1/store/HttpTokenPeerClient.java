@@ -0,0 +1,45 @@
+package com.example.jwt_basics1.store;
+
+import com.example.jwt_basics1.dto.TokenEventBatch;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+
+/*
+    * The HttpTokenPeerClient class pulls the events of a peer from its /internal/replication/events endpoint
+ */
+public class HttpTokenPeerClient implements TokenPeerClient {
+
+    public static final String SECRET_HEADER = "X-Replication-Secret";
+
+    private final HttpClient httpClient;
+    private final ObjectMapper objectMapper;
+    private final String secret;
+    private final Duration timeout;
+
+    public HttpTokenPeerClient(ObjectMapper objectMapper, String secret, Duration timeout) {
+        this.httpClient = HttpClient.newBuilder().connectTimeout(timeout).build();
+        this.objectMapper = objectMapper;
+        this.secret = secret;
+        this.timeout = timeout;
+    }
+
+    @Override
+    public TokenEventBatch fetch(String peer, long sinceSequence) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(peer + "/internal/replication/events?since=" + sinceSequence))
+                .header(SECRET_HEADER, secret)
+                .timeout(timeout)
+                .GET()
+                .build();
+        HttpResponse<byte[]> response = httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() != 200) {
+            throw new IOException("Peer answered with status " + response.statusCode());
+        }
+        return objectMapper.readValue(response.body(), TokenEventBatch.class);
+    }
+}
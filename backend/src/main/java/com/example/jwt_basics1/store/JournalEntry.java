@@ -0,0 +1,13 @@
+package com.example.jwt_basics1.store;
+
+import lombok.Value;
+
+/*
+    * The JournalEntry class is one record of a TokenJournal, a key with an optional value that is kept until it expires
+ */
+@Value
+public class JournalEntry {
+    String key;
+    String value;
+    long expiresAt;
+}
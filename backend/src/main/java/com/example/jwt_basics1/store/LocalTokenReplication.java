@@ -0,0 +1,26 @@
+package com.example.jwt_basics1.store;
+
+import com.example.jwt_basics1.dto.TokenEvent;
+import com.example.jwt_basics1.dto.TokenEventBatch;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/*
+    * The LocalTokenReplication class is used by a single node, there is nothing to propagate
+ */
+public class LocalTokenReplication implements TokenReplication {
+
+    @Override
+    public void publish(TokenEvent.Type type, String jwtID, String value, long expiresAt) {
+    }
+
+    @Override
+    public void subscribe(Consumer<TokenEvent> listener) {
+    }
+
+    @Override
+    public TokenEventBatch eventsSince(long sequence) {
+        return new TokenEventBatch("local", List.of(), false);
+    }
+}
@@ -0,0 +1,377 @@
+package com.example.jwt_basics1.store;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/*
+    * The MappedFileTokenJournal class is an append-only journal in memory-mapped segment files, plus a compacted snapshot
+    * Appends only copy the record into the mapped segment, a background thread forces the segment to disk
+    * every flush interval, so all the appends of that interval share a single sync (group commit)
+    * An append is durable once awaitDurable returns, the callers that acknowledge a change to a client wait for it,
+    * at most one flush interval plus the sync. Without the wait an append can be lost on a power failure
+    * Each record carries its length and a CRC32, the replay stops at the first torn or missing record
+    *
+    * Files in the directory, for a journal named "blacklist":
+    *   blacklist.snapshot           the live entries at the last compaction, and the first segment appended after it
+    *   blacklist-000000000042.log   the segments appended after that snapshot
+ */
+@Slf4j
+public class MappedFileTokenJournal implements TokenJournal {
+
+    private static final int SNAPSHOT_MAGIC = 0x4A574C53; // "JWLS"
+    private static final byte PUT = 1;
+    private static final int RECORD_HEADER_BYTES = 2 * Integer.BYTES; // length + crc
+
+    private final Path directory;
+    private final String name;
+    private final int segmentBytes;
+    private final long compactionBytes;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final CRC32 crc = new CRC32();
+    private final ScheduledExecutorService flusher;
+
+    private long segmentNumber;
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private long bytesSinceSnapshot;
+    private volatile boolean dirty;
+
+    // appends copied into the segments (guarded by lock), and how many of them are forced to disk (guarded by commits)
+    private long appendedCount;
+    private final Object commits = new Object();
+    private long durableCount;
+    private boolean closed;
+
+    public MappedFileTokenJournal(Path directory, String name, int segmentBytes,
+                                  long compactionBytes, long flushIntervalMillis) {
+        this.directory = directory;
+        this.name = name;
+        this.segmentBytes = segmentBytes;
+        this.compactionBytes = compactionBytes;
+        try {
+            Files.createDirectories(directory);
+            // never append to a segment of a previous run, it may end with a torn record
+            List<Long> existing = segmentNumbers();
+            this.segmentNumber = existing.isEmpty() ? 1 : existing.get(existing.size() - 1) + 1;
+            openSegment();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open the token journal " + name + " in " + directory, e);
+        }
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "token-journal-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.flusher.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void append(String key, String value, long expiresAt) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] valueBytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+        int payloadBytes = 1 + Long.BYTES + Short.BYTES + keyBytes.length + Short.BYTES + valueBytes.length;
+        // the lengths are stored as shorts, and a record never spans two segments
+        if (keyBytes.length > Short.MAX_VALUE || valueBytes.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Token journal " + name + " entries are limited to " + Short.MAX_VALUE
+                    + " bytes per key and value, got " + keyBytes.length + " and " + valueBytes.length);
+        }
+        if (RECORD_HEADER_BYTES + payloadBytes > segmentBytes) {
+            throw new IllegalArgumentException("Token journal " + name + " record of " + (RECORD_HEADER_BYTES + payloadBytes)
+                    + " bytes does not fit in a segment of " + segmentBytes + " bytes");
+        }
+
+        lock.lock();
+        try {
+            if (segment.remaining() < RECORD_HEADER_BYTES + payloadBytes) {
+                rollSegment();
+            }
+            int start = segment.position();
+            segment.putInt(payloadBytes).putInt(0);
+            segment.put(PUT)
+                    .putLong(expiresAt)
+                    .putShort((short) keyBytes.length).put(keyBytes)
+                    .putShort((short) valueBytes.length).put(valueBytes);
+            // the crc is written last, a record cut in the middle does not match it
+            crc.reset();
+            crc.update(segment.slice(start + RECORD_HEADER_BYTES, payloadBytes));
+            segment.putInt(start + Integer.BYTES, (int) crc.getValue());
+
+            bytesSinceSnapshot += RECORD_HEADER_BYTES + payloadBytes;
+            appendedCount++;
+            dirty = true;
+        } catch (IOException e) {
+            // the entry stays in memory, only its durability is lost
+            log.error("Cannot append to the token journal {}", name, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Wait for the group commit that covers every append made before the call
+    @Override
+    public void awaitDurable() {
+        long target;
+        lock.lock();
+        try {
+            target = appendedCount;
+        } finally {
+            lock.unlock();
+        }
+        synchronized (commits) {
+            while (durableCount < target && !closed) {
+                try {
+                    commits.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void replay(Consumer<JournalEntry> consumer) {
+        try {
+            long firstSegment = replaySnapshot(consumer);
+            for (long number : segmentNumbers()) {
+                if (number >= firstSegment && number < segmentNumber) {
+                    replaySegment(segmentPath(number), consumer);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot replay the token journal " + name, e);
+        }
+    }
+
+    @Override
+    public boolean needsCompaction() {
+        return bytesSinceSnapshot >= compactionBytes;
+    }
+
+    @Override
+    public void compact(Supplier<Stream<JournalEntry>> liveEntries) {
+        long firstSegment;
+        lock.lock();
+        try {
+            // every entry of the older segments is already in the store, appends from now on go to the new segment
+            rollSegment();
+            firstSegment = segmentNumber;
+            bytesSinceSnapshot = 0;
+        } catch (IOException e) {
+            log.error("Cannot compact the token journal {}", name, e);
+            return;
+        } finally {
+            lock.unlock();
+        }
+
+        Path snapshot = directory.resolve(name + ".snapshot");
+        Path temporary = directory.resolve(name + ".snapshot.tmp");
+        try (FileChannel snapshotChannel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                     Channels.newOutputStream(snapshotChannel), 64 * 1024));
+             Stream<JournalEntry> entries = liveEntries.get()) {
+
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeLong(firstSegment);
+            CRC32 snapshotCrc = new CRC32();
+            for (JournalEntry entry : (Iterable<JournalEntry>) entries::iterator) {
+                byte[] record = encodePayload(entry);
+                snapshotCrc.reset();
+                snapshotCrc.update(record);
+                out.writeInt(record.length);
+                out.writeInt((int) snapshotCrc.getValue());
+                out.write(record);
+            }
+            out.writeInt(0);
+            out.flush();
+            snapshotChannel.force(true);
+        } catch (IOException e) {
+            log.error("Cannot write the snapshot of the token journal {}", name, e);
+            return;
+        }
+
+        try {
+            Files.move(temporary, snapshot, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            for (long number : segmentNumbers()) {
+                if (number < firstSegment) {
+                    Files.deleteIfExists(segmentPath(number));
+                }
+            }
+        } catch (IOException e) {
+            log.error("Cannot replace the snapshot of the token journal {}", name, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        flusher.shutdown();
+        lock.lock();
+        try {
+            segment.force();
+            committed(appendedCount);
+            channel.close();
+        } catch (IOException e) {
+            log.error("Cannot close the token journal {}", name, e);
+        } finally {
+            lock.unlock();
+            // nobody waits for a closed journal
+            synchronized (commits) {
+                closed = true;
+                commits.notifyAll();
+            }
+        }
+    }
+
+    // group commit, one sync for every append since the last flush
+    // the segments before the current one were forced when they were rolled
+    private void flush() {
+        if (!dirty) {
+            return;
+        }
+        MappedByteBuffer toForce;
+        long target;
+        lock.lock();
+        try {
+            toForce = segment;
+            target = appendedCount;
+            dirty = false;
+        } finally {
+            lock.unlock();
+        }
+        try {
+            toForce.force();
+            committed(target);
+        } catch (RuntimeException e) {
+            // retried on the next flush, the waiting callers keep waiting
+            dirty = true;
+            log.error("Cannot sync the token journal {}", name, e);
+        }
+    }
+
+    private void committed(long count) {
+        synchronized (commits) {
+            if (count > durableCount) {
+                durableCount = count;
+                commits.notifyAll();
+            }
+        }
+    }
+
+    private void rollSegment() throws IOException {
+        segment.force();
+        channel.close();
+        segmentNumber++;
+        openSegment();
+    }
+
+    private void openSegment() throws IOException {
+        channel = FileChannel.open(segmentPath(segmentNumber), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+    }
+
+    // returns the first segment that is not covered by the snapshot
+    private long replaySnapshot(Consumer<JournalEntry> consumer) throws IOException {
+        Path snapshot = directory.resolve(name + ".snapshot");
+        if (!Files.exists(snapshot)) {
+            return 0;
+        }
+        try (FileChannel snapshotChannel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            ByteBuffer buffer = snapshotChannel.map(FileChannel.MapMode.READ_ONLY, 0, snapshotChannel.size());
+            if (buffer.remaining() < Integer.BYTES + Long.BYTES || buffer.getInt() != SNAPSHOT_MAGIC) {
+                log.warn("Ignoring the invalid snapshot of the token journal {}", name);
+                return 0;
+            }
+            long firstSegment = buffer.getLong();
+            readRecords(buffer, consumer);
+            return firstSegment;
+        }
+    }
+
+    private void replaySegment(Path path, Consumer<JournalEntry> consumer) throws IOException {
+        try (FileChannel segmentChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+            readRecords(segmentChannel.map(FileChannel.MapMode.READ_ONLY, 0, segmentChannel.size()), consumer);
+        }
+    }
+
+    private void readRecords(ByteBuffer buffer, Consumer<JournalEntry> consumer) {
+        CRC32 recordCrc = new CRC32();
+        while (buffer.remaining() >= RECORD_HEADER_BYTES) {
+            int length = buffer.getInt();
+            int expectedCrc = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                return; // end of the written part of the file, or a torn record
+            }
+            ByteBuffer payload = buffer.slice(buffer.position(), length);
+            recordCrc.reset();
+            recordCrc.update(payload.duplicate());
+            if ((int) recordCrc.getValue() != expectedCrc) {
+                log.warn("Token journal {} ends with a torn record, ignoring the rest of the file", name);
+                return;
+            }
+            buffer.position(buffer.position() + length);
+            if (payload.get() == PUT) {
+                long expiresAt = payload.getLong();
+                String key = readString(payload);
+                String value = readString(payload);
+                consumer.accept(new JournalEntry(key, value, expiresAt));
+            }
+        }
+    }
+
+    private static String readString(ByteBuffer payload) {
+        byte[] bytes = new byte[payload.getShort()];
+        payload.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] encodePayload(JournalEntry entry) {
+        byte[] keyBytes = entry.getKey().getBytes(StandardCharsets.UTF_8);
+        byte[] valueBytes = entry.getValue() == null ? new byte[0] : entry.getValue().getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(1 + Long.BYTES + Short.BYTES + keyBytes.length + Short.BYTES + valueBytes.length)
+                .put(PUT)
+                .putLong(entry.getExpiresAt())
+                .putShort((short) keyBytes.length).put(keyBytes)
+                .putShort((short) valueBytes.length).put(valueBytes)
+                .array();
+    }
+
+    private Path segmentPath(long number) {
+        return directory.resolve(String.format("%s-%012d.log", name, number));
+    }
+
+    private List<Long> segmentNumbers() throws IOException {
+        String prefix = name + "-";
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(path -> path.getFileName().toString())
+                    .filter(file -> file.startsWith(prefix) && file.endsWith(".log"))
+                    .map(file -> Long.parseLong(file.substring(prefix.length(), file.length() - ".log".length())))
+                    .sorted()
+                    .toList();
+        }
+    }
+}
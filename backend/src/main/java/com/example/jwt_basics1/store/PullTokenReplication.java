@@ -0,0 +1,144 @@
+package com.example.jwt_basics1.store;
+
+import com.example.jwt_basics1.dto.TokenEvent;
+import com.example.jwt_basics1.dto.TokenEventBatch;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/*
+    * The PullTokenReplication class replicates the token stores by letting every node pull the events of its peers
+    * Each node numbers the events it originates, and keeps a version vector (origin -> last applied sequence)
+    * A pull asks a peer for its events after the last applied one, in batches, every poll interval
+    * so a change reaches every reachable node within one poll interval plus the time of the pull
+    * A restarted node gets a new origin id, its sequence starts over without being mistaken for old events
+ */
+@Slf4j
+public class PullTokenReplication implements TokenReplication, AutoCloseable {
+
+    private final String origin;
+    private final List<String> peers;
+    private final TokenPeerClient peerClient;
+    private final int batchSize;
+    private final int logCapacity;
+
+    // the events this node originated, by sequence
+    private final ConcurrentSkipListMap<Long, TokenEvent> eventLog = new ConcurrentSkipListMap<>();
+    // guarded by this, taken and inserted in one step so a pull never sees N+1 before N
+    private long sequence;
+    private final AtomicInteger eventLogSize = new AtomicInteger();
+
+    // version vector, origin id -> last sequence applied from that origin
+    private final Map<String, Long> versionVector = new ConcurrentHashMap<>();
+    // peer address -> origin id last answered by that peer
+    private final Map<String, String> peerOrigins = new ConcurrentHashMap<>();
+
+    private final List<Consumer<TokenEvent>> listeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService poller;
+
+    public PullTokenReplication(String origin, List<String> peers, TokenPeerClient peerClient,
+                                long pollIntervalMillis, int batchSize, int logCapacity) {
+        this.origin = origin;
+        this.peers = List.copyOf(peers);
+        this.peerClient = peerClient;
+        this.batchSize = batchSize;
+        this.logCapacity = logCapacity;
+        this.poller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "token-replication");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.poller.scheduleWithFixedDelay(this::pullAll, pollIntervalMillis, pollIntervalMillis, TimeUnit.MILLISECONDS);
+        this.poller.scheduleWithFixedDelay(this::pruneExpired, 1, 1, TimeUnit.MINUTES);
+    }
+
+    @Override
+    public synchronized void publish(TokenEvent.Type type, String jwtID, String value, long expiresAt) {
+        long next = ++sequence;
+        eventLog.put(next, new TokenEvent(next, type, jwtID, value, expiresAt));
+        // a peer that falls behind more than the capacity misses the oldest events
+        if (eventLogSize.incrementAndGet() > logCapacity && eventLog.pollFirstEntry() != null) {
+            eventLogSize.decrementAndGet();
+        }
+    }
+
+    @Override
+    public void subscribe(Consumer<TokenEvent> listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public TokenEventBatch eventsSince(long sinceSequence) {
+        long now = System.currentTimeMillis();
+        List<TokenEvent> events = new ArrayList<>();
+        for (TokenEvent event : eventLog.tailMap(sinceSequence, false).values()) {
+            if (events.size() == batchSize) {
+                return new TokenEventBatch(origin, events, true);
+            }
+            if (event.getExpiresAt() > now) {
+                events.add(event);
+            }
+        }
+        return new TokenEventBatch(origin, events, false);
+    }
+
+    public Map<String, Long> getVersionVector() {
+        return Map.copyOf(versionVector);
+    }
+
+    @Override
+    public void close() {
+        poller.shutdownNow();
+    }
+
+    // visible for the in-process stand-in used by tests
+    public void pullAll() {
+        for (String peer : peers) {
+            try {
+                pullFrom(peer);
+            } catch (Exception e) {
+                // the peer is down or unreachable, it is pulled again on the next poll
+                log.warn("Cannot pull token events from {}: {}", peer, e.getMessage());
+            }
+        }
+    }
+
+    private void pullFrom(String peer) throws Exception {
+        boolean more = true;
+        while (more) {
+            String knownOrigin = peerOrigins.get(peer);
+            long since = knownOrigin == null ? 0 : versionVector.getOrDefault(knownOrigin, 0L);
+            TokenEventBatch batch = peerClient.fetch(peer, since);
+            peerOrigins.put(peer, batch.getOrigin());
+            if (since > 0 && !batch.getOrigin().equals(knownOrigin)) {
+                continue; // the peer restarted, pull again with the sequence of its new origin
+            }
+            for (TokenEvent event : batch.getEvents()) {
+                listeners.forEach(listener -> listener.accept(event));
+                versionVector.put(batch.getOrigin(), event.getSequence());
+            }
+            more = batch.isMore();
+        }
+    }
+
+    private void pruneExpired() {
+        long now = System.currentTimeMillis();
+        eventLog.values().removeIf(event -> {
+            if (event.getExpiresAt() > now) {
+                return false;
+            }
+            eventLogSize.decrementAndGet();
+            return true;
+        });
+    }
+}
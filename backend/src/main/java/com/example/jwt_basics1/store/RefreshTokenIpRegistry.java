@@ -0,0 +1,194 @@
+package com.example.jwt_basics1.store;
+
+import lombok.EqualsAndHashCode;
+import lombok.RequiredArgsConstructor;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/*
+    * The RefreshTokenIpRegistry class binds the id of a refresh token to the IP address of the login that created it
+    * Entries are stored compactly: the jwtID (a UUID) as two longs, the address as its 4 or 16 bytes
+    * Every entry expires with its refresh token, expired entries are swept from time buckets in the background
+    * and the registry never holds more than maxEntries, the entries closest to their expiration are dropped first
+ */
+public class RefreshTokenIpRegistry {
+
+    private static final byte TAG_IPV4 = 4;
+    private static final byte TAG_IPV6 = 6;
+    private static final byte TAG_OTHER = 0;
+
+    private final long maxEntries;
+    private final Map<JtiKey, Binding> bindings = new ConcurrentHashMap<>();
+    private final ExpiryBuckets<JtiKey> expiryBuckets;
+    private final AtomicLong capacityEvictions = new AtomicLong();
+
+    public RefreshTokenIpRegistry(long maxEntries, long bucketMillis) {
+        this.maxEntries = maxEntries;
+        this.expiryBuckets = new ExpiryBuckets<>(bucketMillis);
+    }
+
+    public void put(String jwtID, String ip, long expiresAt) {
+        if (expiresAt <= System.currentTimeMillis()) {
+            return;
+        }
+        JtiKey key = JtiKey.of(jwtID);
+        bindings.put(key, new Binding(encodeAddress(ip), expiresAt));
+        if (!expiryBuckets.add(key, expiresAt)) {
+            removeIfExpired(key);
+        }
+        // over the cap, drop whole buckets of the entries that expire first
+        while (bindings.size() > maxEntries && expiryBuckets.expireOldest(this::evictForCapacity)) {
+            // keep evicting until the registry fits again
+        }
+    }
+
+    // Check that the refresh token is bound to this IP address, and that the binding did not expire
+    public boolean matches(String jwtID, String ip) {
+        Binding binding = bindings.get(JtiKey.of(jwtID));
+        return binding != null
+                && binding.expiresAt > System.currentTimeMillis()
+                && Arrays.equals(binding.address, encodeAddress(ip));
+    }
+
+    // Remove the expired entries, only the buckets that already ended are visited
+    public void sweep() {
+        expiryBuckets.expire(System.currentTimeMillis(), this::removeIfExpired);
+    }
+
+    public int size() {
+        return bindings.size();
+    }
+
+    public long getCapacityEvictions() {
+        return capacityEvictions.get();
+    }
+
+    // the live entries, with the jwtID and the address back in their text form
+    public Stream<JournalEntry> liveEntries() {
+        long now = System.currentTimeMillis();
+        return bindings.entrySet().stream()
+                .filter(entry -> entry.getValue().expiresAt > now)
+                .map(entry -> new JournalEntry(entry.getKey().toString(),
+                        decodeAddress(entry.getValue().address), entry.getValue().expiresAt));
+    }
+
+    private void removeIfExpired(JtiKey key) {
+        long now = System.currentTimeMillis();
+        bindings.computeIfPresent(key, (k, binding) -> binding.expiresAt <= now ? null : binding);
+    }
+
+    // a key put again with a later expiration time is still queued in its old bucket, its binding is kept
+    // until its own bucket is evicted
+    private void evictForCapacity(JtiKey key, long bucket) {
+        boolean[] evicted = {false};
+        bindings.computeIfPresent(key, (k, binding) -> {
+            if (expiryBuckets.bucketOf(binding.expiresAt) > bucket) {
+                return binding;
+            }
+            evicted[0] = true;
+            return null;
+        });
+        if (evicted[0]) {
+            capacityEvictions.incrementAndGet();
+        }
+    }
+
+    // IPv4 and IPv6 literals as their bytes, anything else as UTF-8, each behind a tag byte
+    static byte[] encodeAddress(String ip) {
+        byte[] ipv4 = parseIpv4(ip);
+        if (ipv4 != null) {
+            return tagged(TAG_IPV4, ipv4);
+        }
+        if (ip.indexOf(':') >= 0) {
+            try {
+                // a string with a colon is always parsed as an IPv6 literal, there is no name lookup
+                return tagged(TAG_IPV6, InetAddress.getByName(ip).getAddress());
+            } catch (UnknownHostException e) {
+                // not a valid literal, kept as text
+            }
+        }
+        return tagged(TAG_OTHER, ip.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String decodeAddress(byte[] encoded) {
+        byte[] value = Arrays.copyOfRange(encoded, 1, encoded.length);
+        if (encoded[0] == TAG_OTHER) {
+            return new String(value, StandardCharsets.UTF_8);
+        }
+        try {
+            return InetAddress.getByAddress(value).getHostAddress();
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException("Invalid stored address", e);
+        }
+    }
+
+    private static byte[] tagged(byte tag, byte[] value) {
+        byte[] encoded = new byte[value.length + 1];
+        encoded[0] = tag;
+        System.arraycopy(value, 0, encoded, 1, value.length);
+        return encoded;
+    }
+
+    private static byte[] parseIpv4(String ip) {
+        byte[] address = new byte[4];
+        int part = 0;
+        int value = -1;
+        for (int i = 0; i < ip.length(); i++) {
+            char c = ip.charAt(i);
+            if (c >= '0' && c <= '9') {
+                value = (value < 0 ? 0 : value * 10) + (c - '0');
+                if (value > 255) {
+                    return null;
+                }
+            } else if (c == '.' && value >= 0 && part < 3) {
+                address[part++] = (byte) value;
+                value = -1;
+            } else {
+                return null;
+            }
+        }
+        if (part != 3 || value < 0) {
+            return null;
+        }
+        address[3] = (byte) value;
+        return address;
+    }
+
+    @RequiredArgsConstructor
+    private static final class Binding {
+        private final byte[] address;
+        private final long expiresAt;
+    }
+
+    // a jwtID is a UUID, kept as its two longs instead of a 36 char string
+    @EqualsAndHashCode
+    @RequiredArgsConstructor
+    private static final class JtiKey {
+        private final long mostSignificantBits;
+        private final long leastSignificantBits;
+
+        static JtiKey of(String jwtID) {
+            UUID uuid;
+            try {
+                uuid = UUID.fromString(jwtID);
+            } catch (IllegalArgumentException e) {
+                // not issued by AuthenticationService, still gets a stable key
+                uuid = UUID.nameUUIDFromBytes(jwtID.getBytes(StandardCharsets.UTF_8));
+            }
+            return new JtiKey(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+        }
+
+        @Override
+        public String toString() {
+            return new UUID(mostSignificantBits, leastSignificantBits).toString();
+        }
+    }
+}
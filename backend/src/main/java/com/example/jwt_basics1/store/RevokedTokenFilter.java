@@ -0,0 +1,143 @@
+package com.example.jwt_basics1.store;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+    * The RevokedTokenFilter class is a concurrent Bloom filter of revoked token ids
+    * A negative answer is exact, a positive answer must be confirmed against the exact blacklist
+    * The filter keeps two generations, each one covers a window of time, and the older one is dropped on rotation
+    * An id whose remaining lifetime is at most the window is therefore kept until its token expires
+ */
+public class RevokedTokenFilter {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final long windowMillis;
+    private final int longCount; // power of two
+    private final long bitMask;
+    private final int hashCount;
+
+    private volatile Generation current;
+    private volatile Generation previous;
+
+    public RevokedTokenFilter(long windowMillis, long expectedInsertions, double falsePositiveRate) {
+        this.windowMillis = windowMillis;
+        // optimal number of bits and hash functions for the expected insertions per window
+        long optimalBits = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        long longs = Long.highestOneBit(Math.max(1, (optimalBits + 63) / 64) * 2 - 1);
+        this.longCount = (int) Math.min(longs, 1 << 30);
+        this.bitMask = (long) longCount * 64 - 1;
+        this.hashCount = Math.max(1, (int) Math.round((double) optimalBits / expectedInsertions * Math.log(2)));
+        long now = System.currentTimeMillis();
+        this.current = new Generation(longCount, now);
+        this.previous = new Generation(longCount, now);
+    }
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    public void add(String jwtID) {
+        Generation generation = current;
+        long h1 = hash(jwtID);
+        long h2 = mix(h1) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = (h1 + i * h2) & bitMask;
+            setBit(generation.bits, bit);
+        }
+        generation.insertions.incrementAndGet();
+    }
+
+    public boolean mightContain(String jwtID) {
+        long h1 = hash(jwtID);
+        long h2 = mix(h1) | 1;
+        return contains(current, h1, h2) || contains(previous, h1, h2);
+    }
+
+    // Start a new generation once the current one covered a whole window, the previous one is dropped
+    public void rotateIfNeeded(long now) {
+        Generation generation = current;
+        if (now - generation.createdAt >= windowMillis) {
+            synchronized (this) {
+                if (current == generation) {
+                    previous = generation;
+                    current = new Generation(longCount, now);
+                }
+            }
+        }
+    }
+
+    // Expected false positive rate of a lookup, from the number of ids inserted into both generations
+    public double getExpectedFalsePositiveRate() {
+        double currentRate = falsePositiveRate(current.insertions.get());
+        double previousRate = falsePositiveRate(previous.insertions.get());
+        return 1 - (1 - currentRate) * (1 - previousRate);
+    }
+
+    public long getMemoryBytes() {
+        return 2L * longCount * Long.BYTES;
+    }
+
+    public long getInsertions() {
+        return current.insertions.get() + previous.insertions.get();
+    }
+
+    private double falsePositiveRate(long insertions) {
+        double bits = (double) longCount * 64;
+        return Math.pow(1 - Math.exp(-hashCount * insertions / bits), hashCount);
+    }
+
+    private boolean contains(Generation generation, long h1, long h2) {
+        for (int i = 0; i < hashCount; i++) {
+            long bit = (h1 + i * h2) & bitMask;
+            if ((generation.bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void setBit(AtomicLongArray bits, long bit) {
+        int index = (int) (bit >>> 6);
+        long mask = 1L << bit;
+        long word;
+        while (((word = bits.get(index)) & mask) == 0) {
+            if (bits.compareAndSet(index, word, word | mask)) {
+                return;
+            }
+        }
+    }
+
+    // 64 bit FNV-1a over the chars of the id, no allocation
+    private static long hash(String value) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return mix(hash);
+    }
+
+    // final mixer of murmur3, spreads the bits of the FNV hash
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static final class Generation {
+        private final AtomicLongArray bits;
+        private final long createdAt;
+        private final AtomicLong insertions = new AtomicLong();
+
+        private Generation(int longCount, long createdAt) {
+            this.bits = new AtomicLongArray(longCount);
+            this.createdAt = createdAt;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.jwt_basics1.store;
+
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/*
+    * The TokenJournal interface persists the entries of an in-memory token store, so they survive a restart
+    * Entries are appended as they are written, and the journal is compacted from the live entries of the store
+ */
+public interface TokenJournal extends AutoCloseable {
+
+    // a journal that keeps nothing, used when the persistence is disabled
+    TokenJournal DISABLED = new TokenJournal() {
+        @Override
+        public void append(String key, String value, long expiresAt) {
+        }
+
+        @Override
+        public void awaitDurable() {
+        }
+
+        @Override
+        public void replay(Consumer<JournalEntry> consumer) {
+        }
+
+        @Override
+        public boolean needsCompaction() {
+            return false;
+        }
+
+        @Override
+        public void compact(Supplier<Stream<JournalEntry>> liveEntries) {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    // Append an entry, it is written to disk with the next group commit
+    void append(String key, String value, long expiresAt);
+
+    // Wait until every entry appended before the call is on disk, before a change is acknowledged to a client
+    void awaitDurable();
+
+    // Read back the snapshot and every entry appended after it, in the order they were written
+    void replay(Consumer<JournalEntry> consumer);
+
+    boolean needsCompaction();
+
+    // Replace the snapshot and the appended entries with the live entries of the store
+    void compact(Supplier<Stream<JournalEntry>> liveEntries);
+
+    @Override
+    void close();
+}
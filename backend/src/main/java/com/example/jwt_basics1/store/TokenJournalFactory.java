@@ -0,0 +1,56 @@
+package com.example.jwt_basics1.store;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/*
+    * The TokenJournalFactory class opens the journals of the token stores
+    * When jwt.persistence.enabled is false (the default) every store gets TokenJournal.DISABLED and lives in memory only
+ */
+@Component
+public class TokenJournalFactory {
+
+    private final boolean enabled;
+    private final Path directory;
+    private final int segmentBytes;
+    private final long compactionBytes;
+    private final long flushIntervalMillis;
+
+    private final List<TokenJournal> openJournals = new CopyOnWriteArrayList<>();
+
+    public TokenJournalFactory(@Value("${jwt.persistence.enabled:false}") boolean enabled,
+                               @Value("${jwt.persistence.directory:./data/tokens}") Path directory,
+                               @Value("${jwt.persistence.segment-bytes:67108864}") int segmentBytes,
+                               @Value("${jwt.persistence.compaction-bytes:33554432}") long compactionBytes,
+                               @Value("${jwt.persistence.flush-interval-millis:10}") long flushIntervalMillis) {
+        this.enabled = enabled;
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.compactionBytes = compactionBytes;
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+
+    // a factory whose journals keep nothing, for stores created outside of spring
+    public static TokenJournalFactory disabled() {
+        return new TokenJournalFactory(false, Path.of("."), 0, 0, 0);
+    }
+
+    public TokenJournal open(String name) {
+        if (!enabled) {
+            return TokenJournal.DISABLED;
+        }
+        TokenJournal journal = new MappedFileTokenJournal(directory, name, segmentBytes, compactionBytes, flushIntervalMillis);
+        openJournals.add(journal);
+        return journal;
+    }
+
+    @PreDestroy
+    public void closeAll() {
+        openJournals.forEach(TokenJournal::close);
+    }
+}
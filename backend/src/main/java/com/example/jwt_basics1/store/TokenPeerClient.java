@@ -0,0 +1,12 @@
+package com.example.jwt_basics1.store;
+
+import com.example.jwt_basics1.dto.TokenEventBatch;
+
+/*
+    * The TokenPeerClient interface fetches the events of another node, it is replaced by an in-process stand-in in tests
+ */
+@FunctionalInterface
+public interface TokenPeerClient {
+
+    TokenEventBatch fetch(String peer, long sinceSequence) throws Exception;
+}
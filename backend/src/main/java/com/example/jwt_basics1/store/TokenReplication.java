@@ -0,0 +1,22 @@
+package com.example.jwt_basics1.store;
+
+import com.example.jwt_basics1.dto.TokenEvent;
+import com.example.jwt_basics1.dto.TokenEventBatch;
+
+import java.util.function.Consumer;
+
+/*
+    * The TokenReplication interface propagates the changes of the token stores between the nodes of a cluster
+    * Changes are applied to the local stores first, so the per-request checks never wait for the network
+ */
+public interface TokenReplication {
+
+    // Publish a change made on this node
+    void publish(TokenEvent.Type type, String jwtID, String value, long expiresAt);
+
+    // Register the handler of the changes made on other nodes
+    void subscribe(Consumer<TokenEvent> listener);
+
+    // The events this node originated after the given sequence, served to the other nodes
+    TokenEventBatch eventsSince(long sequence);
+}
@@ -0,0 +1,68 @@
+package com.example.jwt_basics1.config;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.export.SimpleSpanProcessor;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The lines must stay OTLP JSON across OpenTelemetry upgrades (the marshaler is internal) and the file bounded
+class FileSpanExporterTests {
+
+    @TempDir
+    Path directory;
+
+    private static void export(Path file, long maxBytes, String... spanNames) throws IOException {
+        SdkTracerProvider provider = SdkTracerProvider.builder()
+                .addSpanProcessor(SimpleSpanProcessor.create(new FileSpanExporter(file, maxBytes)))
+                .build();
+        Tracer tracer = provider.get("test");
+        for (String name : spanNames) {
+            tracer.spanBuilder(name).startSpan().end();
+        }
+        provider.shutdown().join(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void eachBatchIsOneOtlpJsonLine() throws IOException {
+        Path file = directory.resolve("spans.jsonl");
+        export(file, Long.MAX_VALUE, "GET /api/users", "UserService.findAll");
+
+        List<String> lines = Files.readAllLines(file);
+        assertEquals(2, lines.size());
+        JsonNode request = new ObjectMapper().readTree(lines.get(0));
+        JsonNode span = request.at("/resourceSpans/0/scopeSpans/0/spans/0");
+        assertEquals("GET /api/users", span.get("name").asText());
+        assertEquals(32, span.get("traceId").asText().length());
+    }
+
+    @Test
+    void fileRollsOverAtMaxBytes() throws IOException {
+        Path file = directory.resolve("spans.jsonl");
+        export(file, Long.MAX_VALUE, "one");
+        long lineBytes = Files.size(file);
+        Files.delete(file);
+
+        // room for two lines per file
+        export(file, 2 * lineBytes + lineBytes / 2, "one", "two", "three", "four", "five");
+
+        Path rolled = directory.resolve("spans.jsonl.1");
+        assertTrue(Files.exists(rolled));
+        assertEquals(1, Files.readAllLines(file).size());
+        assertEquals(2, Files.readAllLines(rolled).size());
+        assertFalse(Files.readAllLines(rolled).get(0).contains("\"one\""));
+        assertTrue(Files.size(file) + Files.size(rolled) <= 2 * (2 * lineBytes + lineBytes / 2));
+    }
+}
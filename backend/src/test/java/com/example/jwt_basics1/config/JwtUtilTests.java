@@ -0,0 +1,57 @@
+package com.example.jwt_basics1.config;
+
+import com.example.jwt_basics1.dto.AuthenticationResponse;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The tokens written by issueTokenPair must read back exactly like the ones of the jjwt builder
+class JwtUtilTests {
+
+    @TempDir
+    Path directory;
+
+    private JwtUtil jwtUtil(JwtKeyRing.Algorithm algorithm) {
+        JwtKeyRing keyRing = new JwtKeyRing(directory.resolve(algorithm + ".properties"), Duration.ZERO, 30_000,
+                Duration.ZERO, algorithm);
+        return new JwtUtil(keyRing, 0, Duration.ZERO);
+    }
+
+    private void assertPairMatchesBuilder(JwtUtil jwtUtil) {
+        // a username that needs escaping in JSON
+        UserDetails userDetails = new User("o\"brien\\", "", List.of(new SimpleGrantedAuthority("ROLE_USER"),
+                new SimpleGrantedAuthority("ROLE_ADMIN")));
+
+        AuthenticationResponse pair = jwtUtil.issueTokenPair(userDetails, "jti-1");
+        VerifiedToken access = jwtUtil.parseToken(pair.getAccessToken());
+        VerifiedToken refresh = jwtUtil.parseToken(pair.getRefreshToken());
+        VerifiedToken built = jwtUtil.parseToken(jwtUtil.generateToken(null, userDetails, "jti-1"));
+
+        assertEquals(built.getSubject(), access.getSubject());
+        assertEquals(built.getJwtID(), access.getJwtID());
+        assertEquals(built.getRoles(), access.getRoles());
+        assertEquals("o\"brien\\", refresh.getSubject());
+        assertEquals(List.of(), refresh.getRoles());
+        assertTrue(refresh.getExpiration().after(access.getExpiration()));
+        assertEquals(access.getIssuedAt(), refresh.getIssuedAt());
+    }
+
+    @Test
+    void hmacPairReadsLikeTheBuilder() {
+        assertPairMatchesBuilder(jwtUtil(JwtKeyRing.Algorithm.HS256));
+    }
+
+    @Test
+    void asymmetricPairReadsLikeTheBuilder() {
+        assertPairMatchesBuilder(jwtUtil(JwtKeyRing.Algorithm.EdDSA));
+    }
+}
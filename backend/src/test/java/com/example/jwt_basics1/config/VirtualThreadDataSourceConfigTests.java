@@ -0,0 +1,56 @@
+package com.example.jwt_basics1.config;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// The connections handed out are proxies, Spring must see each one as equal to itself only
+class VirtualThreadDataSourceConfigTests {
+
+    private static VirtualThreadDataSourceConfig.ConnectionLimitingDataSource dataSource(int maxConnections) {
+        JdbcDataSource h2 = new JdbcDataSource();
+        h2.setURL("jdbc:h2:mem:limited;DB_CLOSE_DELAY=-1");
+        return new VirtualThreadDataSourceConfig.ConnectionLimitingDataSource(h2, maxConnections, 50);
+    }
+
+    @Test
+    void connectionIsEqualToItselfOnly() throws SQLException {
+        VirtualThreadDataSourceConfig.ConnectionLimitingDataSource dataSource = dataSource(2);
+        try (Connection first = dataSource.getConnection(); Connection second = dataSource.getConnection()) {
+            assertEquals(first, first);
+            assertEquals(System.identityHashCode(first), first.hashCode());
+            assertNotEquals(first, second);
+            assertNotEquals(first, first.unwrap(Connection.class));
+        }
+    }
+
+    @Test
+    void transactionReleasesItsPermit() throws SQLException {
+        VirtualThreadDataSourceConfig.ConnectionLimitingDataSource dataSource = dataSource(1);
+        TransactionTemplate transactions = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+
+        transactions.executeWithoutResult(status -> {
+            Connection held = DataSourceUtils.getConnection(dataSource);
+            assertSame(held, DataSourceUtils.getConnection(dataSource));
+            DataSourceUtils.releaseConnection(held, dataSource);
+            // the only permit is taken by the transaction
+            assertThrows(SQLTransientConnectionException.class, dataSource::getConnection);
+        });
+
+        // and given back once it completed
+        try (Connection connection = dataSource.getConnection()) {
+            assertEquals(connection, connection);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.jwt_basics1.loadtest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+    * Records the latency of every request of one endpoint, each load generator thread writes to its own array
+    * and the arrays are only merged and sorted for the report, so recording does not contend between threads
+ */
+public class LatencyRecorder {
+
+    private final String name;
+    private final List<Samples> allSamples = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<Samples> threadSamples = ThreadLocal.withInitial(() -> {
+        Samples samples = new Samples();
+        allSamples.add(samples);
+        return samples;
+    });
+    private final LongAdder errors = new LongAdder();
+
+    public LatencyRecorder(String name) {
+        this.name = name;
+    }
+
+    public void record(long nanos, boolean success) {
+        threadSamples.get().add(nanos);
+        if (!success) {
+            errors.increment();
+        }
+    }
+
+    public String report(double seconds) {
+        List<long[]> parts = new ArrayList<>();
+        int total = 0;
+        for (Samples samples : allSamples) {
+            parts.add(samples.snapshot());
+            total += samples.size;
+        }
+        long[] merged = new long[total];
+        int offset = 0;
+        for (long[] part : parts) {
+            System.arraycopy(part, 0, merged, offset, part.length);
+            offset += part.length;
+        }
+        Arrays.sort(merged);
+        return String.format(Locale.ROOT,
+                "%-28s requests=%-9d errors=%-7d rps=%-10.1f p50=%-8.2fms p99=%-8.2fms p999=%-8.2fms max=%.2fms",
+                name, merged.length, errors.sum(), merged.length / seconds,
+                percentile(merged, 0.50), percentile(merged, 0.99), percentile(merged, 0.999),
+                merged.length == 0 ? 0 : merged[merged.length - 1] / 1e6);
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    private static final class Samples {
+        private long[] values = new long[4096];
+        private volatile int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[size] = value;
+            size = size + 1;
+        }
+
+        long[] snapshot() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package com.example.jwt_basics1.loadtest;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+    * Closed-loop load generator of a mix of operations, one virtual thread per simulated client
+    * Every client logs in as a random seeded user, then picks its next operation by the weights of the mix:
+    * a read of one user, a page of users, a refresh of its tokens or a logout (followed by a new login)
+    * The first warmup seconds are not recorded, then RPS and p50 / p99 / p999 are reported per endpoint
+    *
+    * Run against the loadtest profile (LoadTestDataSeeder), loadtest/run-workload.sh starts it and runs:
+    *   mvn test-compile exec:java -Dexec.classpathScope=test \
+    *       -Dexec.mainClass=com.example.jwt_basics1.loadtest.WorkloadGenerator \
+    *       -Dexec.args="baseUrl=http://localhost:8080 concurrency=500 seconds=60 users=100000 mix=read:80,page:10,refresh:6,logout:4"
+ */
+public class WorkloadGenerator {
+
+    private static final Pattern ACCESS_TOKEN = Pattern.compile("\"accessToken\"\\s*:\\s*\"([^\"]+)\"");
+    private static final Pattern REFRESH_TOKEN = Pattern.compile("\"refreshToken\"\\s*:\\s*\"([^\"]+)\"");
+    private static final Pattern USER_ID = Pattern.compile("\"id\"\\s*:\\s*(\\d+)");
+    private static final Pattern NEXT_CURSOR = Pattern.compile("\"nextCursor\"\\s*:\\s*\"([^\"]+)\"");
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    enum Operation { READ, PAGE, REFRESH, LOGOUT }
+
+    private final HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+    private final String baseUrl;
+    private final int users;
+    private final String usernamePrefix;
+    private final String password;
+    private final Operation[] operations;
+    private final int[] cumulativeWeights;
+    private long[] ids;
+    // nothing is recorded before the warmup ended
+    private volatile long measureFrom = Long.MAX_VALUE;
+
+    private final LatencyRecorder login = new LatencyRecorder("POST /api/login");
+    private final LatencyRecorder refresh = new LatencyRecorder("POST /api/refresh-token");
+    private final LatencyRecorder read = new LatencyRecorder("GET /api/users/{id}");
+    private final LatencyRecorder page = new LatencyRecorder("GET /api/users");
+    private final LatencyRecorder logout = new LatencyRecorder("POST /api/auth/logout");
+
+    WorkloadGenerator(String baseUrl, int users, String usernamePrefix, String password, String mix) {
+        this.baseUrl = baseUrl;
+        this.users = users;
+        this.usernamePrefix = usernamePrefix;
+        this.password = password;
+
+        String[] parts = mix.split(",");
+        this.operations = new Operation[parts.length];
+        this.cumulativeWeights = new int[parts.length];
+        int total = 0;
+        for (int i = 0; i < parts.length; i++) {
+            String[] weight = parts[i].trim().split(":");
+            operations[i] = Operation.valueOf(weight[0].toUpperCase());
+            total += Integer.parseInt(weight[1]);
+            cumulativeWeights[i] = total;
+        }
+        if (total <= 0) {
+            throw new IllegalArgumentException("The mix has no weight: " + mix);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = LoadGenerator.parseOptions(args);
+        int concurrency = Integer.parseInt(options.getOrDefault("concurrency", "200"));
+        int seconds = Integer.parseInt(options.getOrDefault("seconds", "60"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "10"));
+        int idCount = Integer.parseInt(options.getOrDefault("ids", "10000"));
+
+        WorkloadGenerator generator = new WorkloadGenerator(
+                options.getOrDefault("baseUrl", "http://localhost:8080"),
+                Integer.parseInt(options.getOrDefault("users", "100000")),
+                options.getOrDefault("usernamePrefix", "loadtest-user-"),
+                options.getOrDefault("password", "password"),
+                options.getOrDefault("mix", "read:80,page:10,refresh:6,logout:4"));
+        generator.collectIds(idCount);
+
+        double elapsed = generator.run(concurrency, warmup, seconds);
+        System.out.println("concurrency=" + concurrency + " seconds=" + seconds + " warmup=" + warmup
+                + " users=" + generator.users + " ids=" + generator.ids.length);
+        for (LatencyRecorder recorder : List.of(generator.login, generator.refresh, generator.read,
+                generator.page, generator.logout)) {
+            System.out.println(recorder.report(elapsed));
+        }
+    }
+
+    // the ids of the first users, the reads pick one of them, collected page by page
+    void collectIds(int count) throws Exception {
+        Session session = login(0);
+        if (session == null) {
+            throw new IllegalStateException("Login of " + usernamePrefix + 0 + " failed, is the loadtest profile seeded?");
+        }
+        List<Long> collected = new ArrayList<>(count);
+        String cursor = null;
+        do {
+            HttpResponse<String> response = client.send(authorized(session,
+                    "/api/users?size=100" + (cursor == null ? "" : "&cursor=" + cursor)).GET().build(),
+                    HttpResponse.BodyHandlers.ofString());
+            Matcher ids = USER_ID.matcher(response.body());
+            while (ids.find() && collected.size() < count) {
+                collected.add(Long.parseLong(ids.group(1)));
+            }
+            Matcher next = NEXT_CURSOR.matcher(response.body());
+            cursor = next.find() ? next.group(1) : null;
+        } while (cursor != null && collected.size() < count);
+        ids = collected.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    // the wall time of the recorded part, in seconds
+    double run(int concurrency, int warmupSeconds, int seconds) {
+        long start = System.nanoTime();
+        measureFrom = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long deadline = measureFrom + TimeUnit.SECONDS.toNanos(seconds);
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < concurrency; i++) {
+                clients.submit(() -> {
+                    runClient(deadline);
+                    return null;
+                });
+            }
+        }
+        return (System.nanoTime() - measureFrom) / 1e9;
+    }
+
+    private void runClient(long deadline) throws InterruptedException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Session session = null;
+        while (System.nanoTime() < deadline) {
+            if (session == null) {
+                session = login(random.nextInt(users));
+                if (session == null) {
+                    // throttled (429) or failed, back off instead of spinning on the login
+                    Thread.sleep(100);
+                }
+                continue;
+            }
+            switch (pick(random)) {
+                case READ -> {
+                    if (!get(read, session, "/api/users/" + ids[random.nextInt(ids.length)])) {
+                        session = null;
+                    }
+                }
+                case PAGE -> {
+                    if (!get(page, session, "/api/users?size=20&cursor=" + cursor(ids[random.nextInt(ids.length)]))) {
+                        session = null;
+                    }
+                }
+                case REFRESH -> session = refresh(session);
+                case LOGOUT -> {
+                    logout(session);
+                    session = null;
+                }
+            }
+        }
+    }
+
+    private Operation pick(ThreadLocalRandom random) {
+        int value = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (value < cumulativeWeights[i]) {
+                return operations[i];
+            }
+        }
+        return operations[operations.length - 1];
+    }
+
+    private Session login(int user) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/api/login"))
+                .header("Content-Type", "application/json")
+                .timeout(TIMEOUT)
+                .POST(HttpRequest.BodyPublishers.ofString(
+                        "{\"username\":\"" + usernamePrefix + user + "\",\"password\":\"" + password + "\"}"))
+                .build();
+        return send(login, request);
+    }
+
+    private Session refresh(Session session) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/api/refresh-token"))
+                .header("Content-Type", "application/json")
+                .timeout(TIMEOUT)
+                .POST(HttpRequest.BodyPublishers.ofString("{\"refreshToken\":\"" + session.refreshToken + "\"}"))
+                .build();
+        return send(refresh, request);
+    }
+
+    private void logout(Session session) {
+        long sent = System.nanoTime();
+        boolean success;
+        try {
+            success = client.send(authorized(session, "/api/auth/logout")
+                    .POST(HttpRequest.BodyPublishers.noBody()).build(),
+                    HttpResponse.BodyHandlers.discarding()).statusCode() == 200;
+        } catch (Exception e) {
+            success = false;
+        }
+        record(logout, sent, success);
+    }
+
+    // false when the request failed, the client logs in again
+    private boolean get(LatencyRecorder recorder, Session session, String path) {
+        long sent = System.nanoTime();
+        boolean success;
+        try {
+            success = client.send(authorized(session, path).GET().build(),
+                    HttpResponse.BodyHandlers.discarding()).statusCode() == 200;
+        } catch (Exception e) {
+            success = false;
+        }
+        record(recorder, sent, success);
+        return success;
+    }
+
+    // a login or a refresh, the new tokens or null when it failed
+    private Session send(LatencyRecorder recorder, HttpRequest request) {
+        long sent = System.nanoTime();
+        Session session = null;
+        try {
+            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() == 200) {
+                Matcher accessToken = ACCESS_TOKEN.matcher(response.body());
+                Matcher refreshToken = REFRESH_TOKEN.matcher(response.body());
+                if (accessToken.find() && refreshToken.find()) {
+                    session = new Session(accessToken.group(1), refreshToken.group(1));
+                }
+            }
+        } catch (Exception e) {
+            // recorded as an error
+        }
+        record(recorder, sent, session != null);
+        return session;
+    }
+
+    private void record(LatencyRecorder recorder, long sent, boolean success) {
+        if (sent >= measureFrom) {
+            recorder.record(System.nanoTime() - sent, success);
+        }
+    }
+
+    private HttpRequest.Builder authorized(Session session, String path) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .header("Authorization", "Bearer " + session.accessToken)
+                .timeout(TIMEOUT);
+    }
+
+    // the page cursor of UserService, the users after this id
+    private static String cursor(long afterId) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(("id:" + afterId).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static final class Session {
+        private final String accessToken;
+        private final String refreshToken;
+
+        Session(String accessToken, String refreshToken) {
+            this.accessToken = accessToken;
+            this.refreshToken = refreshToken;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.jwt_basics1.repository;
+
+import com.example.jwt_basics1.config.PasswordEncoderConfig;
+import com.example.jwt_basics1.entity.User;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The hash of every encoder that security.password.encoder can select must fit in the password column
+@DataJpaTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:passwords;MODE=MySQL;NON_KEYWORDS=USER;DB_CLOSE_DELAY=-1",
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+class UserPasswordColumnTests {
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @ParameterizedTest
+    @ValueSource(strings = {"bcrypt", "pbkdf2@SpringSecurity_v5_8"})
+    void hashOfEachEncoderIsStored(String encoderId) {
+        // the lowest BCrypt cost, the length of the hash does not depend on it
+        PasswordEncoder encoder = PasswordEncoderConfig.passwordEncoder(encoderId, 4, false, 250);
+        User user = new User();
+        user.setUsername("user-" + encoderId);
+        user.setPassword(encoder.encode("secret"));
+        user.setRoles(new ArrayList<>());
+
+        userRepository.save(user);
+        entityManager.flush();
+        entityManager.clear();
+
+        String stored = userRepository.findByUsername("user-" + encoderId).getPassword();
+        assertTrue(stored.startsWith("{" + encoderId + "}"));
+        assertTrue(encoder.matches("secret", stored));
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.jwt_basics1.repository;
+
+import com.example.jwt_basics1.entity.Role;
+import com.example.jwt_basics1.entity.User;
+import com.example.jwt_basics1.mapper.UserMapper;
+import com.example.jwt_basics1.service.CustomUserDetailsService;
+import com.example.jwt_basics1.service.RoleService;
+import com.example.jwt_basics1.service.UserRevocationService;
+import com.example.jwt_basics1.store.LocalTokenReplication;
+import com.example.jwt_basics1.store.TokenJournalFactory;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Every read path that needs the roles of a user must cost one statement, however many users share those roles
+@DataJpaTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:statements;MODE=MySQL;NON_KEYWORDS=USER;DB_CLOSE_DELAY=-1",
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.properties.hibernate.generate_statistics=true"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+class UserRepositoryStatementCountTests {
+
+    private static final int USERS = 50;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private RoleRepository roleRepository;
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private Statistics statistics;
+    private Long someUserId;
+
+    @BeforeEach
+    void setUp() {
+        Role admin = new Role();
+        admin.setRoleName("ADMIN");
+        Role user = new Role();
+        user.setRoleName("USER");
+        roleRepository.save(admin);
+        roleRepository.save(user);
+
+        for (int i = 0; i < USERS; i++) {
+            User entity = new User();
+            entity.setUsername("user" + i);
+            entity.setPassword("password");
+            entity.setRoles(new ArrayList<>(List.of(admin, user)));
+            userRepository.save(entity);
+            someUserId = entity.getId();
+        }
+        entityManager.flush();
+        entityManager.clear();
+
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+    }
+
+    @Test
+    void findByUsernameLoadsRolesInOneStatement() {
+        User found = userRepository.findByUsername("user7");
+
+        assertEquals(2, found.getRoles().size());
+        assertEquals(1, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    void loadUserByUsernameCostsOneStatement() {
+        CustomUserDetailsService service = new CustomUserDetailsService(
+                userRepository, 100, Duration.ofMinutes(5), Duration.ofMinutes(1));
+
+        UserDetails userDetails = service.loadUserByUsername("user7");
+
+        assertEquals(2, userDetails.getAuthorities().size());
+        assertEquals(1, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    void toDtoCostsOneStatement() {
+        CustomUserDetailsService userDetailsService = new CustomUserDetailsService(
+                userRepository, 100, Duration.ofMinutes(5), Duration.ofMinutes(1));
+        UserMapper mapper = new UserMapper(new RoleService(roleRepository, userDetailsService,
+                new UserRevocationService(TokenJournalFactory.disabled(), new LocalTokenReplication())));
+
+        var dto = mapper.toDto(userRepository.getUsersById(someUserId).orElseThrow());
+
+        assertEquals(Set.of("ADMIN", "USER"), dto.getRoles());
+        assertEquals(1, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    void pageOfUsersCostsOneStatement() {
+        List<UserRoleRow> rows = userRepository.findUserRolesAfter(0, 10);
+
+        assertEquals(20, rows.size()); // 10 users, 2 roles each
+        assertEquals(1, statistics.getPrepareStatementCount());
+    }
+}
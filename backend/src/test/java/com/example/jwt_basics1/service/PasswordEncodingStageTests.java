@@ -0,0 +1,76 @@
+package com.example.jwt_basics1.service;
+
+import com.example.jwt_basics1.dto.UserDto;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.Pbkdf2PasswordEncoder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The lowest BCrypt cost, the tests are about the order and the errors of the rows, not the hashing itself
+class PasswordEncodingStageTests {
+
+    private final BCryptPasswordEncoder encoder = new BCryptPasswordEncoder(4);
+    private final PasswordEncodingStage stage = new PasswordEncodingStage(encoder, 4);
+
+    @AfterEach
+    void shutdown() {
+        stage.shutdown();
+    }
+
+    @Test
+    void rowsKeepTheirOrderAndTheirOwnErrors() {
+        List<UserDto> rows = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            rows.add(UserDto.builder().username("user" + i).password("password" + i).build());
+        }
+        // over the 72 bytes of BCrypt
+        rows.get(17).setPassword("x".repeat(100));
+
+        String[] errors = stage.encodeAll(rows);
+
+        for (int i = 0; i < rows.size(); i++) {
+            if (i == 17) {
+                assertNotNull(errors[i]);
+            } else {
+                assertNull(errors[i]);
+                assertTrue(encoder.matches("password" + i, rows.get(i).getPassword()));
+            }
+        }
+    }
+
+    @Test
+    void encodedPasswordsAreKept() {
+        String hash = encoder.encode("secret");
+        String pbkdf2 = "{pbkdf2@SpringSecurity_v5_8}" + Pbkdf2PasswordEncoder.defaultsForSpringSecurity_v5_8().encode("secret");
+        List<UserDto> rows = List.of(
+                UserDto.builder().password(hash).build(),
+                UserDto.builder().password("{bcrypt}" + hash).build(),
+                UserDto.builder().password(pbkdf2).build());
+
+        stage.encodeAll(rows);
+
+        assertEquals(hash, rows.get(0).getPassword());
+        assertEquals("{bcrypt}" + hash, rows.get(1).getPassword());
+        assertEquals(pbkdf2, rows.get(2).getPassword());
+    }
+
+    @Test
+    void prefixesWithoutARegisteredEncoderAreHashed() {
+        List<UserDto> rows = List.of(
+                UserDto.builder().password("{noop}secret").build(),
+                UserDto.builder().password("{bcrypt}secret").build());
+
+        stage.encodeAll(rows);
+
+        assertTrue(encoder.matches("{noop}secret", rows.get(0).getPassword()));
+        assertTrue(encoder.matches("{bcrypt}secret", rows.get(1).getPassword()));
+    }
+}
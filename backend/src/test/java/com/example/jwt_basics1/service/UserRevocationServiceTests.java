@@ -0,0 +1,103 @@
+package com.example.jwt_basics1.service;
+
+import com.example.jwt_basics1.config.VerifiedToken;
+import com.example.jwt_basics1.store.LocalTokenReplication;
+import com.example.jwt_basics1.store.PullTokenReplication;
+import com.example.jwt_basics1.store.TokenJournalFactory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// A change marker must outlive the node that recorded it, and reach the nodes that did not
+class UserRevocationServiceTests {
+
+    private static final long NEVER = 3_600_000;
+
+    @TempDir
+    Path directory;
+
+    private static VerifiedToken token(String username, long issuedAt) {
+        return new VerifiedToken(username, "jti", List.of("ROLE_USER"),
+                new Date(issuedAt + 60_000), new Date(issuedAt));
+    }
+
+    private TokenJournalFactory journals() {
+        // markChanged waits for the group commit of its marker
+        return new TokenJournalFactory(true, directory, 4096, Long.MAX_VALUE, 10);
+    }
+
+    @Test
+    void markerIsRestoredAfterARestart() {
+        long issuedAt = System.currentTimeMillis() - 1_000;
+        TokenJournalFactory journals = journals();
+        UserRevocationService service = new UserRevocationService(journals, new LocalTokenReplication());
+        service.restore();
+        service.markChanged("alice");
+        journals.closeAll();
+
+        journals = journals();
+        UserRevocationService restarted = new UserRevocationService(journals, new LocalTokenReplication());
+        restarted.restore();
+        journals.closeAll();
+
+        assertTrue(restarted.isIssuedBeforeChange(token("alice", issuedAt)));
+        assertFalse(restarted.isIssuedBeforeChange(token("bob", issuedAt)));
+        assertFalse(restarted.isIssuedBeforeChange(token("alice", System.currentTimeMillis() + 2_000)));
+    }
+
+    @Test
+    void markerReachesThePeer() {
+        Map<String, PullTokenReplication> nodes = new HashMap<>();
+        PullTokenReplication a = new PullTokenReplication("a-1", List.of("b"),
+                (address, since) -> nodes.get(address).eventsSince(since), NEVER, 100, 1000);
+        PullTokenReplication b = new PullTokenReplication("b-1", List.of("a"),
+                (address, since) -> nodes.get(address).eventsSince(since), NEVER, 100, 1000);
+        nodes.put("a", a);
+        nodes.put("b", b);
+        try {
+            UserRevocationService onA = new UserRevocationService(TokenJournalFactory.disabled(), a);
+            UserRevocationService onB = new UserRevocationService(TokenJournalFactory.disabled(), b);
+            onA.restore();
+            onB.restore();
+            long issuedAt = System.currentTimeMillis() - 1_000;
+
+            onA.markChanged("alice");
+            assertFalse(onB.isIssuedBeforeChange(token("alice", issuedAt)));
+            b.pullAll();
+
+            assertTrue(onB.isIssuedBeforeChange(token("alice", issuedAt)));
+        } finally {
+            a.close();
+            b.close();
+        }
+    }
+
+    @Test
+    void roleChangeMarksTheTokensOfEveryUser() {
+        long issuedAt = System.currentTimeMillis() - 1_000;
+        TokenJournalFactory journals = journals();
+        UserRevocationService service = new UserRevocationService(journals, new LocalTokenReplication());
+        service.restore();
+        service.markRolesChanged();
+
+        assertTrue(service.isIssuedBeforeChange(token("alice", issuedAt)));
+        assertTrue(service.isIssuedBeforeChange(token("bob", issuedAt)));
+        assertFalse(service.isIssuedBeforeChange(token("alice", System.currentTimeMillis() + 2_000)));
+
+        // and after a restart
+        journals.closeAll();
+        journals = journals();
+        UserRevocationService restarted = new UserRevocationService(journals, new LocalTokenReplication());
+        restarted.restore();
+        journals.closeAll();
+        assertTrue(restarted.isIssuedBeforeChange(token("bob", issuedAt)));
+    }
+}
@@ -0,0 +1,204 @@
+package com.example.jwt_basics1.store;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Each test writes a journal, closes it and replays it with a new instance on the same directory, as after a restart
+// the flusher never runs, close() forces the segment
+class MappedFileTokenJournalTests {
+
+    private static final int SEGMENT_BYTES = 4096;
+    private static final long NEVER = 3_600_000;
+
+    @TempDir
+    Path directory;
+
+    private final List<MappedFileTokenJournal> journals = new ArrayList<>();
+
+    @AfterEach
+    void closeJournals() {
+        journals.forEach(MappedFileTokenJournal::close);
+    }
+
+    private MappedFileTokenJournal open() {
+        MappedFileTokenJournal journal = new MappedFileTokenJournal(directory, "test", SEGMENT_BYTES, Long.MAX_VALUE, NEVER);
+        journals.add(journal);
+        return journal;
+    }
+
+    private MappedFileTokenJournal restart(MappedFileTokenJournal journal) {
+        journal.close();
+        journals.remove(journal);
+        return open();
+    }
+
+    private static List<JournalEntry> replay(TokenJournal journal) {
+        List<JournalEntry> entries = new ArrayList<>();
+        journal.replay(entries::add);
+        return entries;
+    }
+
+    private List<String> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(path -> path.getFileName().toString())
+                    .filter(file -> file.endsWith(".log"))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    // the header and the payload of a record written by append
+    private static int recordBytes(String key, String value) {
+        return 2 * Integer.BYTES + 1 + Long.BYTES + Short.BYTES + key.length() + Short.BYTES + value.length();
+    }
+
+    private void overwrite(String segment, int position, byte[] bytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory.resolve(segment), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(bytes), position);
+        }
+    }
+
+    @Test
+    void entriesAreReplayedAfterACleanRestart() {
+        MappedFileTokenJournal journal = open();
+        journal.append("jti-1", null, 1000);
+        journal.append("jti-2", "10.0.0.2", 2000);
+
+        journal = restart(journal);
+
+        assertEquals(List.of(new JournalEntry("jti-1", "", 1000), new JournalEntry("jti-2", "10.0.0.2", 2000)),
+                replay(journal));
+        // replayed again after a second restart, nothing was lost by opening a new segment
+        journal = restart(journal);
+        assertEquals(2, replay(journal).size());
+    }
+
+    @Test
+    void tornTailRecordIsSkipped() throws IOException {
+        MappedFileTokenJournal journal = open();
+        journal.append("jti-1", "a", 1000);
+        journal.append("jti-2", "b", 2000);
+        journal.close();
+        journals.remove(journal);
+
+        // the header of the second record made it to disk, its payload did not
+        int second = recordBytes("jti-1", "a");
+        overwrite(segmentFiles().get(0), second + 2 * Integer.BYTES, new byte[recordBytes("jti-2", "b") - 2 * Integer.BYTES]);
+
+        assertEquals(List.of(new JournalEntry("jti-1", "a", 1000)), replay(open()));
+    }
+
+    @Test
+    void recordWithACrcMismatchIsSkippedAndLaterSegmentsAreReplayed() throws IOException {
+        MappedFileTokenJournal journal = open();
+        journal.append("jti-1", "a", 1000);
+        journal.append("jti-2", "b", 2000);
+        journal = restart(journal);
+        journal.append("jti-3", "c", 3000);
+        journal.close();
+        journals.remove(journal);
+
+        // one flipped byte in the key of the second record of the first segment
+        int keyOfSecond = recordBytes("jti-1", "a") + 2 * Integer.BYTES + 1 + Long.BYTES + Short.BYTES;
+        overwrite(segmentFiles().get(0), keyOfSecond, "x".getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(List.of(new JournalEntry("jti-1", "a", 1000), new JournalEntry("jti-3", "c", 3000)),
+                replay(open()));
+    }
+
+    @Test
+    void compactionDeletesOnlySupersededSegments() throws IOException {
+        MappedFileTokenJournal journal = open();
+        journal.append("jti-1", "a", 1000);
+        journal = restart(journal);
+        journal.append("jti-2", "b", 2000);
+        assertEquals(List.of("test-000000000001.log", "test-000000000002.log"), segmentFiles());
+
+        journal.compact(() -> Stream.of(new JournalEntry("jti-2", "b", 2000)));
+        journal.append("jti-3", "c", 3000);
+
+        // the segments covered by the snapshot are gone, the one appended to since the compaction is kept
+        assertEquals(List.of("test-000000000003.log"), segmentFiles());
+        assertEquals(List.of(new JournalEntry("jti-2", "b", 2000), new JournalEntry("jti-3", "c", 3000)),
+                replay(restart(journal)));
+    }
+
+    @Test
+    void snapshotAndTheSegmentsAfterItAreReplayed() {
+        MappedFileTokenJournal journal = open();
+        journal.append("jti-1", "a", 1000);
+        journal.append("jti-2", "b", 2000);
+        // jti-1 expired, the snapshot keeps jti-2 only
+        journal.compact(() -> Stream.of(new JournalEntry("jti-2", "b", 2000)));
+        journal.append("jti-3", "c", 3000);
+        journal = restart(journal);
+        journal.append("jti-4", "d", 4000);
+        journal = restart(journal);
+
+        assertEquals(List.of(
+                new JournalEntry("jti-2", "b", 2000),
+                new JournalEntry("jti-3", "c", 3000),
+                new JournalEntry("jti-4", "d", 4000)), replay(journal));
+    }
+
+    @Test
+    void entriesThatCannotBeStoredAreRejected() {
+        MappedFileTokenJournal journal = open();
+
+        assertThrows(IllegalArgumentException.class, () -> journal.append("k".repeat(Short.MAX_VALUE + 1), null, 1000));
+        assertThrows(IllegalArgumentException.class, () -> journal.append("jti-1", "v".repeat(Short.MAX_VALUE + 1), 1000));
+        assertThrows(IllegalArgumentException.class, () -> journal.append("jti-1", "v".repeat(SEGMENT_BYTES), 1000));
+
+        // the journal is still usable
+        journal.append("jti-2", "b", 2000);
+        assertEquals(List.of(new JournalEntry("jti-2", "b", 2000)), replay(restart(journal)));
+    }
+
+    @Test
+    void awaitDurableReturnsAfterTheNextFlush() {
+        MappedFileTokenJournal journal = new MappedFileTokenJournal(directory, "synced", SEGMENT_BYTES, Long.MAX_VALUE, 200);
+        journals.add(journal);
+        // nothing appended, nothing to wait for
+        assertTimeoutPreemptively(Duration.ofMillis(100), journal::awaitDurable);
+
+        long start = System.nanoTime();
+        journal.append("jti-1", "a", 1000);
+        assertTimeoutPreemptively(Duration.ofSeconds(5), journal::awaitDurable);
+        // the first flush runs one interval after the journal was opened
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+    }
+
+    @Test
+    void awaitDurableReturnsWhenTheJournalIsClosed() throws Exception {
+        MappedFileTokenJournal journal = open();
+        journal.append("jti-1", "a", 1000);
+        CompletableFuture<Void> waiting = CompletableFuture.runAsync(journal::awaitDurable);
+        Thread.sleep(50);
+        assertFalse(waiting.isDone());
+
+        journal.close();
+        journals.remove(journal);
+        waiting.get(5, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.jwt_basics1.store;
+
+import com.example.jwt_basics1.dto.TokenEvent;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Two nodes connected in-process, the pulls are triggered by the test instead of the poller
+class PullTokenReplicationTests {
+
+    private static final long NEVER = 3_600_000;
+
+    private final Map<String, PullTokenReplication> nodes = new HashMap<>();
+
+    @AfterEach
+    void closeNodes() {
+        nodes.values().forEach(PullTokenReplication::close);
+    }
+
+    private PullTokenReplication node(String name, String origin, String peer, int batchSize) {
+        PullTokenReplication node = new PullTokenReplication(origin, List.of(peer),
+                (address, since) -> nodes.get(address).eventsSince(since), NEVER, batchSize, 1000);
+        nodes.put(name, node);
+        return node;
+    }
+
+    @Test
+    void eventsReachThePeerInBatches() {
+        PullTokenReplication a = node("a", "a-1", "b", 2);
+        PullTokenReplication b = node("b", "b-1", "a", 2);
+        List<String> received = new ArrayList<>();
+        b.subscribe(event -> received.add(event.getJwtID()));
+
+        long expiresAt = System.currentTimeMillis() + 60_000;
+        for (int i = 0; i < 5; i++) {
+            a.publish(TokenEvent.Type.REVOKE, "jti-" + i, null, expiresAt);
+        }
+        b.pullAll();
+
+        assertEquals(List.of("jti-0", "jti-1", "jti-2", "jti-3", "jti-4"), received);
+        assertEquals(Map.of("a-1", 5L), b.getVersionVector());
+
+        // nothing new, nothing applied twice
+        b.pullAll();
+        assertEquals(5, received.size());
+    }
+
+    @Test
+    void restartedPeerIsPulledFromTheStart() {
+        PullTokenReplication a = node("a", "a-1", "b", 100);
+        PullTokenReplication b = node("b", "b-1", "a", 100);
+        List<String> received = new ArrayList<>();
+        b.subscribe(event -> received.add(event.getJwtID()));
+
+        long expiresAt = System.currentTimeMillis() + 60_000;
+        a.publish(TokenEvent.Type.REVOKE, "before-restart", null, expiresAt);
+        a.publish(TokenEvent.Type.REVOKE, "before-restart-2", null, expiresAt);
+        b.pullAll();
+
+        a.close();
+        PullTokenReplication restarted = node("a", "a-2", "b", 100);
+        restarted.publish(TokenEvent.Type.REFRESH_IP, "after-restart", "10.0.0.1", expiresAt);
+        b.pullAll();
+
+        assertTrue(received.contains("after-restart"));
+        assertEquals(1L, b.getVersionVector().get("a-2"));
+    }
+
+    @Test
+    void concurrentPublishesAreNotSkippedByAPull() throws Exception {
+        PullTokenReplication a = node("a", "a-1", "b", 7);
+        PullTokenReplication b = node("b", "b-1", "a", 7);
+        List<Long> received = new ArrayList<>();
+        b.subscribe(event -> received.add(event.getSequence()));
+
+        int publishers = 4;
+        int perPublisher = 250; // within the log capacity of 1000
+        long expiresAt = System.currentTimeMillis() + 60_000;
+        ExecutorService executor = Executors.newFixedThreadPool(publishers);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int p = 0; p < publishers; p++) {
+            int publisher = p;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < perPublisher; i++) {
+                    a.publish(TokenEvent.Type.REVOKE, "jti-" + publisher + "-" + i, null, expiresAt);
+                }
+            }));
+        }
+        // pull while the publishers run, a sequence seen before a smaller one would move the vector past it
+        while (!futures.stream().allMatch(Future::isDone)) {
+            b.pullAll();
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        b.pullAll();
+
+        long total = (long) publishers * perPublisher;
+        Set<Long> distinct = new HashSet<>(received);
+        assertEquals(total, received.size());
+        assertEquals(total, distinct.size());
+        for (long sequence = 1; sequence <= total; sequence++) {
+            assertTrue(distinct.contains(sequence), "missed sequence " + sequence);
+        }
+        assertEquals(Map.of("a-1", total), b.getVersionVector());
+    }
+}
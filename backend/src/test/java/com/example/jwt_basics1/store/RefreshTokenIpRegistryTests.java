@@ -0,0 +1,47 @@
+package com.example.jwt_basics1.store;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Over the cap, the bindings that expire first are evicted, whatever bucket a renewed binding was first queued in
+class RefreshTokenIpRegistryTests {
+
+    private static final long BUCKET_MILLIS = 60_000;
+
+    @Test
+    void renewedBindingIsNotEvictedWithItsOldBucket() {
+        long now = System.currentTimeMillis();
+        RefreshTokenIpRegistry registry = new RefreshTokenIpRegistry(2, BUCKET_MILLIS);
+        String renewed = UUID.randomUUID().toString();
+        String expiresSoon = UUID.randomUUID().toString();
+        String newest = UUID.randomUUID().toString();
+
+        registry.put(renewed, "10.0.0.1", now + BUCKET_MILLIS);
+        registry.put(expiresSoon, "10.0.0.2", now + 2 * BUCKET_MILLIS);
+        // renewed, it now expires last but is still queued in the first bucket
+        registry.put(renewed, "10.0.0.1", now + 10 * BUCKET_MILLIS);
+        registry.put(newest, "10.0.0.3", now + 5 * BUCKET_MILLIS);
+
+        assertEquals(2, registry.size());
+        assertTrue(registry.matches(renewed, "10.0.0.1"));
+        assertFalse(registry.matches(expiresSoon, "10.0.0.2"));
+        assertTrue(registry.matches(newest, "10.0.0.3"));
+        assertEquals(1, registry.getCapacityEvictions());
+    }
+
+    @Test
+    void bindingsMatchTheirOwnAddressOnly() {
+        RefreshTokenIpRegistry registry = new RefreshTokenIpRegistry(10, BUCKET_MILLIS);
+        String jwtID = UUID.randomUUID().toString();
+        registry.put(jwtID, "2001:db8::1", System.currentTimeMillis() + BUCKET_MILLIS);
+
+        assertTrue(registry.matches(jwtID, "2001:db8:0:0:0:0:0:1"));
+        assertFalse(registry.matches(jwtID, "10.0.0.1"));
+        assertFalse(registry.matches(UUID.randomUUID().toString(), "2001:db8::1"));
+    }
+}
@@ -14,6 +14,7 @@ const api = axios.create({
 const Home = () => {
   const navigate = useNavigate();
   const [users, setUsers] = useState([]);
+  const [nextCursor, setNextCursor] = useState(null); // null when the last page is loaded
   const [error, setError] = useState('');
   const [loading, setLoading] = useState(false);
   const [selectedUser, setSelectedUser] = useState(null);
@@ -38,14 +39,17 @@ const Home = () => {
 
   const isAdmin = getRoles().includes('ROLE_ADMIN');
 
-  // Fetch all users
-  const fetchUsers = async () => {
+  // Fetch the first page of users, or the page after cursor appended to the list
+  const fetchUsers = async (cursor = null) => {
     try {
       setLoading(true);
       const response = await api.get('/users', {
-        headers: { Authorization: `Bearer ${accessToken}` }
+        headers: { Authorization: `Bearer ${accessToken}` },
+        params: cursor ? { cursor } : {}
       });
-      setUsers(response.data);
+      const page = response.data;
+      setUsers(cursor ? [...users, ...page.users] : page.users);
+      setNextCursor(page.nextCursor);
       setError('');
     } catch (err) {
       console.error('Error fetching users:', err);
@@ -262,7 +266,7 @@ const Home = () => {
         <div style={{ display: 'flex', justifyContent: 'space-between', alignItems: 'center', marginBottom: '1rem' }}>
           <h2>Users List</h2>
           <button 
-            onClick={fetchUsers} 
+            onClick={() => fetchUsers()} 
             className="action-button" 
             style={{ marginLeft: 'auto' }}
             disabled={loading}
@@ -295,6 +299,11 @@ const Home = () => {
             ))}
           </div>
         )}
+        {!loading && nextCursor && (
+          <button onClick={() => fetchUsers(nextCursor)} className="action-button">
+            Load More Users
+          </button>
+        )}
       </div>
     </div>
   );